@@ -31,6 +31,11 @@ android {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
     }
+
+    testOptions {
+        // Lets plain JVM tests run code that logs through android.util.Log
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 dependencies {
@@ -43,10 +48,8 @@ dependencies {
     implementation(libs.firebase.firestore)
     implementation(libs.firebase.storage)
 
-    implementation("com.cloudinary:cloudinary-android:2.2.0")
     implementation("com.squareup.okhttp3:okhttp:4.9.3")
     implementation("com.google.mlkit:text-recognition:16.0.0-beta3")
-    implementation("com.android.volley:volley:1.2.1")
 
     // ✅ Use iText 5 (matches your current imports)
     implementation("com.itextpdf:itextg:5.5.10")
@@ -58,6 +61,9 @@ dependencies {
     implementation("androidx.constraintlayout:constraintlayout:2.1.4")
 
     testImplementation(libs.junit)
+    testImplementation("com.squareup.okhttp3:mockwebserver:4.9.3")
+    // The android.jar stubs return defaults; tests that read JSON need the real org.json
+    testImplementation("org.json:json:20231013")
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
     implementation("androidx.activity:activity:1.8.2")
@@ -1,36 +1,57 @@
 package com.example.meditracker;
 
 import android.annotation.SuppressLint;
+import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
-import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Environment;
 import android.provider.MediaStore;
 import android.provider.OpenableColumns;
+import android.util.Log;
 import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.activity.result.ActivityResultLauncher;
+import androidx.annotation.NonNull;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.ContextCompat;
+import androidx.core.content.FileProvider;
 
-import com.google.mlkit.vision.common.InputImage;
-import com.google.mlkit.vision.text.TextRecognition;
-import com.google.mlkit.vision.text.latin.TextRecognizerOptions;
-import com.itextpdf.text.pdf.PdfReader;
-import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+import com.example.meditracker.utils.ContentHash;
+import com.example.meditracker.utils.ExtractedTextStore;
+import com.example.meditracker.utils.ExtractionCache;
+import com.example.meditracker.utils.LabResult;
+import com.example.meditracker.utils.OcrEngine;
+import com.example.meditracker.utils.PdfTextEngine;
+import com.example.meditracker.utils.ReportAnalyzer;
+import com.example.meditracker.utils.ReportPipeline;
 
-import java.io.InputStream;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class AnalyzeReportActivity extends AppCompatActivity {
 
+    private static final String TAG = "AnalyzeReportActivity";
+    private static final String STATE_PENDING_CAPTURE = "pending_capture";
+    private static final String STATE_CAPTURED_IMAGE = "captured_image";
+
     Button btnSelectPdf, btnCaptureImage, btnExtractText;
     TextView txtExtractedText;
     Uri pdfUri;
-    Bitmap capturedImage;
-    String extractedText = "";
+    File capturedImage;
+    File pendingCapture;
+    PdfTextEngine.Job pdfJob;
+    ExtractedTextStore.Spill pdfSpill;
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
 
     // NEW: To hold the Cloudinary URL passed from previous activity
     String reportUrl;
@@ -49,10 +70,16 @@ public class AnalyzeReportActivity extends AppCompatActivity {
     ActivityResultLauncher<Intent> imageCaptureLauncher = registerForActivityResult(
             new ActivityResultContracts.StartActivityForResult(),
             result -> {
-                if (result.getData() != null && result.getData().getExtras() != null) {
-                    capturedImage = (Bitmap) result.getData().getExtras().get("data");
-                    pdfUri = null;
-                    Toast.makeText(this, "Image captured", Toast.LENGTH_SHORT).show();
+                File capture = pendingCapture;
+                pendingCapture = null;
+                if (capture == null) {
+                    return;
+                }
+                if (result.getResultCode() == RESULT_OK) {
+                    stageCapture(capture);
+                } else if (capture.exists() && !capture.delete()) {
+                    // The camera app leaves the empty file behind when cancelled
+                    Log.w(TAG, "Could not delete " + capture);
                 }
             });
 
@@ -64,6 +91,14 @@ public class AnalyzeReportActivity extends AppCompatActivity {
         // Receive report_url from Intent extras
         reportUrl = getIntent().getStringExtra("report_url");
 
+        // The camera app is in front while this screen may be recreated or its process killed
+        if (savedInstanceState != null) {
+            String pending = savedInstanceState.getString(STATE_PENDING_CAPTURE);
+            String captured = savedInstanceState.getString(STATE_CAPTURED_IMAGE);
+            pendingCapture = pending != null ? new File(pending) : null;
+            capturedImage = captured != null ? new File(captured) : null;
+        }
+
         btnSelectPdf = findViewById(R.id.btnSelectPdf);
         btnCaptureImage = findViewById(R.id.btnCaptureImage);
         btnExtractText = findViewById(R.id.btnExtractText);
@@ -80,6 +115,49 @@ public class AnalyzeReportActivity extends AppCompatActivity {
                 Toast.makeText(this, "Select a PDF or capture an image first", Toast.LENGTH_SHORT).show();
             }
         });
+
+        String contentHash = getIntent().getStringExtra("content_hash");
+        if (contentHash != null) {
+            attachToPipeline(contentHash);
+        }
+    }
+
+    // Picks up the extraction ReportPipeline started during the upload instead of asking for the
+    // report again; falls back to the extraction cache once the run has been dropped
+    private void attachToPipeline(String contentHash) {
+        btnExtractText.setEnabled(false);
+        txtExtractedText.setText("Extracting text...");
+        ReportPipeline.Run run = ReportPipeline.getInstance(this).find(contentHash);
+        if (run != null) {
+            run.extraction.whenCompleteAsync((entry, error) -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                if (error != null) {
+                    Log.w(TAG, "Pipeline extraction failed: " + error.getMessage());
+                    onExtractionFailed("Failed to extract text, select the report to try again");
+                } else {
+                    onExtractionDone(entry);
+                }
+            }, ContextCompat.getMainExecutor(this));
+            return;
+        }
+        Context appContext = getApplicationContext();
+        ioExecutor.execute(() -> {
+            ExtractionCache.Entry cached = ExtractionCache.getInstance(appContext).get(contentHash);
+            runOnUiThread(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                if (cached != null) {
+                    onExtractionDone(cached);
+                } else {
+                    // Nothing left of the upload's extraction; the report has to be picked again
+                    btnExtractText.setEnabled(true);
+                    txtExtractedText.setText("");
+                }
+            });
+        });
     }
 
     private void pickPdf() {
@@ -88,59 +166,228 @@ public class AnalyzeReportActivity extends AppCompatActivity {
         pdfPickerLauncher.launch(intent);
     }
 
+    // Captures at full resolution into a file; OcrEngine downscales it for recognition
     private void captureImage() {
         Intent intent = new Intent(MediaStore.ACTION_IMAGE_CAPTURE);
+        try {
+            String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
+            File storageDir = getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+            pendingCapture = File.createTempFile("JPEG_" + timeStamp + "_", ".jpg", storageDir);
+        } catch (IOException e) {
+            Toast.makeText(this, "Could not create file", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Uri photoUri = FileProvider.getUriForFile(this,
+                getApplicationContext().getPackageName() + ".provider", pendingCapture);
+        intent.putExtra(MediaStore.EXTRA_OUTPUT, photoUri);
         imageCaptureLauncher.launch(intent);
     }
 
+    // Moves the full-size capture into the staging cache, so the photo in external storage can go
+    private void stageCapture(File capture) {
+        Context appContext = getApplicationContext();
+        ioExecutor.execute(() -> {
+            File staged = null;
+            try {
+                staged = ParcelFileDescriptorUtil.stageFile(appContext, Uri.fromFile(capture));
+            } catch (IOException e) {
+                Log.e(TAG, "Could not stage captured image", e);
+            }
+            if (capture.exists() && !capture.delete()) {
+                Log.w(TAG, "Could not delete " + capture);
+            }
+            File image = staged;
+            runOnUiThread(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                if (image == null) {
+                    Toast.makeText(this, "Could not save captured image", Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                capturedImage = image;
+                pdfUri = null;
+                Toast.makeText(this, "Image captured", Toast.LENGTH_SHORT).show();
+            });
+        });
+    }
+
+    // Stages the PDF, then either serves a cached result or starts page extraction
     private void extractTextFromPdf() {
+        btnExtractText.setEnabled(false);
+        txtExtractedText.setText("Extracting text...");
+        Context appContext = getApplicationContext();
+        Uri uri = pdfUri;
+        ioExecutor.execute(() -> {
+            try {
+                File staged = ParcelFileDescriptorUtil.stageFile(appContext, uri);
+                String hash = ParcelFileDescriptorUtil.contentHash(staged);
+                ExtractionCache.Entry cached = ExtractionCache.getInstance(appContext).get(hash);
+                runOnUiThread(() -> {
+                    if (isDestroyed()) {
+                        return;
+                    }
+                    if (cached != null) {
+                        onExtractionDone(cached);
+                    } else {
+                        startPdfJob(staged, hash);
+                    }
+                });
+            } catch (IOException e) {
+                Log.e(TAG, "Could not stage PDF for extraction", e);
+                runOnUiThread(() -> onExtractionFailed("Failed to extract text from PDF"));
+            }
+        });
+    }
+
+    private void startPdfJob(File staged, String hash) {
+        ExtractedTextStore.Spill spill;
         try {
-            InputStream inputStream = getContentResolver().openInputStream(pdfUri);
-            PdfReader reader = new PdfReader(inputStream);
-            StringBuilder sb = new StringBuilder();
+            spill = ExtractedTextStore.create(this);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not create text spill file", e);
+            onExtractionFailed("Failed to extract text from PDF");
+            return;
+        }
+        ReportAnalyzer.Extraction extraction = ReportAnalyzer.newExtraction();
 
-            for (int i = 1; i <= reader.getNumberOfPages(); i++) {
-                sb.append(PdfTextExtractor.getTextFromPage(reader, i)).append("\n");
+        pdfSpill = spill;
+        pdfJob = PdfTextEngine.extract(staged, ReportPipeline.spillingPages(spill, extraction), new PdfTextEngine.Listener() {
+            @Override
+            public void onProgress(int pagesDone, int pageCount) {
+                txtExtractedText.setText("Extracting page " + pagesDone + " of " + pageCount + "...");
             }
-            reader.close();
 
-            extractedText = sb.toString();
-            // Pass extractedText and reportUrl to SummaryActivity
-            navigateToSummaryActivity(extractedText);
+            @Override
+            public void onComplete(int pagesRead, int pageCount) {
+                Log.d(TAG, "Read " + pagesRead + " of " + pageCount + " pages");
+                finishPdfJob();
+                cacheAndShow(hash, extraction.result(), spill.getFile());
+            }
+
+            @Override
+            public void onError(Exception e) {
+                finishPdfJob();
+                onExtractionFailed("Failed to extract text from PDF");
+            }
+        });
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            Toast.makeText(this, "Failed to extract text from PDF", Toast.LENGTH_SHORT).show();
+    private void finishPdfJob() {
+        pdfJob = null;
+        if (pdfSpill != null) {
+            try {
+                pdfSpill.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Could not close spilled text: " + e.getMessage());
+            }
+            pdfSpill = null;
         }
     }
 
+    private void cacheAndShow(String hash, LabResult result, File textFile) {
+        Context appContext = getApplicationContext();
+        ioExecutor.execute(() -> {
+            ExtractionCache.Entry entry;
+            try {
+                entry = ExtractionCache.getInstance(appContext).put(hash, result, textFile);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not cache extraction result: " + e.getMessage());
+                entry = new ExtractionCache.Entry(hash, result, textFile);
+            }
+            ExtractionCache.Entry cached = entry;
+            runOnUiThread(() -> {
+                if (!isDestroyed()) {
+                    onExtractionDone(cached);
+                }
+            });
+        });
+    }
+
+    // Takes the staged capture's content hash, then either serves a cached result or runs OCR
     private void extractTextFromImage() {
-        try {
-            InputImage image = InputImage.fromBitmap(capturedImage, 0);
-            TextRecognition.getClient(TextRecognizerOptions.DEFAULT_OPTIONS)
-                    .process(image)
-                    .addOnSuccessListener(visionText -> {
-                        extractedText = visionText.getText();
-                        // Pass extractedText and reportUrl to SummaryActivity
-                        navigateToSummaryActivity(extractedText);
-                    })
-                    .addOnFailureListener(e -> {
-                        e.printStackTrace();
-                        Toast.makeText(this, "Failed to extract text from image", Toast.LENGTH_SHORT).show();
-                    });
-        } catch (Exception e) {
-            e.printStackTrace();
-            Toast.makeText(this, "Image processing failed", Toast.LENGTH_SHORT).show();
-        }
+        btnExtractText.setEnabled(false);
+        txtExtractedText.setText("Recognizing text...");
+        Context appContext = getApplicationContext();
+        File image = capturedImage;
+        ioExecutor.execute(() -> {
+            String hash;
+            ExtractionCache.Entry cached;
+            try {
+                String stagedHash = ParcelFileDescriptorUtil.contentHash(image);
+                hash = stagedHash != null ? stagedHash : ContentHash.of(image);
+                cached = ExtractionCache.getInstance(appContext).get(hash);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not hash captured image", e);
+                runOnUiThread(() -> onExtractionFailed("Image processing failed"));
+                return;
+            }
+            if (cached != null) {
+                runOnUiThread(() -> {
+                    if (!isDestroyed()) {
+                        onExtractionDone(cached);
+                    }
+                });
+                return;
+            }
+            OcrEngine.getInstance().recognize(image, ReportPipeline.cachingParser(appContext, hash),
+                    new OcrEngine.Callback<ExtractionCache.Entry>() {
+                    @Override
+                    public void onSuccess(ExtractionCache.Entry result, OcrEngine.Timings timings) {
+                        if (!isDestroyed()) {
+                            onExtractionDone(result);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        if (!isDestroyed()) {
+                            onExtractionFailed("Failed to extract text from image");
+                        }
+                    }
+                });
+        });
+    }
+
+    private void onExtractionDone(ExtractionCache.Entry result) {
+        btnExtractText.setEnabled(true);
+        txtExtractedText.setText("");
+        // Pass the extracted parameters, text file and reportUrl to SummaryActivity
+        navigateToSummaryActivity(result);
+    }
+
+    private void onExtractionFailed(String message) {
+        btnExtractText.setEnabled(true);
+        txtExtractedText.setText("");
+        Toast.makeText(this, message, Toast.LENGTH_SHORT).show();
     }
 
-    private void navigateToSummaryActivity(String extractedText) {
+    private void navigateToSummaryActivity(ExtractionCache.Entry result) {
         Intent intent = new Intent(this, SummaryActivity.class);
-        intent.putExtra("extracted_text", extractedText);
+        intent.putExtra("content_hash", result.contentHash);
+        intent.putExtra("lab_result", result.result);
+        intent.putExtra("extracted_text_path", result.textFile.getAbsolutePath());
         intent.putExtra("report_url", reportUrl); // pass Cloudinary URL too
         startActivity(intent);
     }
 
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_PENDING_CAPTURE, pendingCapture != null ? pendingCapture.getAbsolutePath() : null);
+        outState.putString(STATE_CAPTURED_IMAGE, capturedImage != null ? capturedImage.getAbsolutePath() : null);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (pdfJob != null) {
+            pdfJob.cancel();
+            finishPdfJob();
+        }
+        ioExecutor.shutdown();
+    }
+
     @SuppressLint("Range")
     private String getFileName(Uri uri) {
         String result = null;
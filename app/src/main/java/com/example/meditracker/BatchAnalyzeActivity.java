@@ -0,0 +1,329 @@
+package com.example.meditracker;
+
+import android.annotation.SuppressLint;
+import android.app.Activity;
+import android.content.ClipData;
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.database.Cursor;
+import android.graphics.Typeface;
+import android.net.Uri;
+import android.os.Bundle;
+import android.provider.OpenableColumns;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.Button;
+import android.widget.LinearLayout;
+import android.widget.ProgressBar;
+import android.widget.TableLayout;
+import android.widget.TableRow;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.appcompat.app.AlertDialog;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+import androidx.core.content.FileProvider;
+
+import com.example.meditracker.utils.BatchAnalyzer;
+import com.example.meditracker.utils.NetworkMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Analyzes a stack of reports in one go: the user multi-selects PDFs and images, every file runs
+ * through {@link BatchAnalyzer}, and the parameters of all reports end up side by side in one
+ * combined table. The batch outlives a configuration change; the recreated screen re-attaches.
+ */
+public class BatchAnalyzeActivity extends AppCompatActivity {
+
+    private static final String TAG = "BatchAnalyzeActivity";
+
+    private Button btnSelectReports;
+    private ProgressBar progressBatch;
+    private TextView tvBatchStatus;
+    private TableLayout tableBatchFiles;
+    private TableLayout tableBatchResults;
+    private LinearLayout cardBatchResults;
+    private final List<TextView> statusViews = new ArrayList<>();
+    private BatchAnalyzer batch;
+    private final BatchAnalyzer.Listener batchListener = new BatchAnalyzer.Listener() {
+        @Override
+        public void onItemUpdated(int index, BatchAnalyzer.Item item) {
+            statusViews.get(index).setText(item.describe());
+            updateOverallProgress(batch.getItems());
+        }
+
+        @Override
+        public void onBatchComplete(List<BatchAnalyzer.Item> finished) {
+            onBatchFinished(finished);
+        }
+    };
+
+    private final ActivityResultLauncher<Intent> pickReportsLauncher = registerForActivityResult(
+            new ActivityResultContracts.StartActivityForResult(),
+            result -> {
+                if (result.getResultCode() == Activity.RESULT_OK && result.getData() != null) {
+                    startBatch(pickedUris(result.getData()));
+                } else {
+                    Toast.makeText(this, "Selection canceled", Toast.LENGTH_SHORT).show();
+                }
+            });
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_batch_analyze);
+
+        Toolbar toolbar = findViewById(R.id.batch_toolbar);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setTitle("Analyze Multiple Reports");
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        }
+        toolbar.setNavigationOnClickListener(v -> finish());
+
+        btnSelectReports = findViewById(R.id.btn_select_reports);
+        progressBatch = findViewById(R.id.progressBatch);
+        tvBatchStatus = findViewById(R.id.tvBatchStatus);
+        tableBatchFiles = findViewById(R.id.tableBatchFiles);
+        tableBatchResults = findViewById(R.id.tableBatchResults);
+        cardBatchResults = findViewById(R.id.cardBatchResults);
+
+        btnSelectReports.setOnClickListener(v -> pickReports());
+
+        // Rotated mid-batch: show the running batch again instead of starting over
+        if (savedInstanceState != null && BatchAnalyzer.current() != null) {
+            batch = BatchAnalyzer.current();
+            showItems(batch.getItems());
+            updateOverallProgress(batch.getItems());
+            batch.setListener(batchListener);
+        }
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        // Network timings are a debugging aid, not something patients need to see
+        if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0) {
+            return false;
+        }
+        getMenuInflater().inflate(R.menu.batch_analyze_menu, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_network_timings) {
+            showNetworkTimings();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void showNetworkTimings() {
+        TextView report = new TextView(this);
+        report.setText(NetworkMetrics.getInstance().report());
+        report.setTypeface(Typeface.MONOSPACE);
+        report.setTextSize(11);
+        report.setPadding(32, 16, 32, 0);
+        report.setTextIsSelectable(true);
+
+        new AlertDialog.Builder(this)
+                .setTitle("Network timings (p50 / p95 / p99)")
+                .setView(report)
+                .setPositiveButton("Close", null)
+                .setNeutralButton("Export CSV", (dialog, which) -> exportNetworkTimings())
+                .setNegativeButton("Reset", (dialog, which) -> NetworkMetrics.getInstance().reset())
+                .show();
+    }
+
+    private void exportNetworkTimings() {
+        File file = new File(getFilesDir(), "network_timings.csv");
+        try {
+            NetworkMetrics.getInstance().exportCsv(file);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not export network timings: " + e.getMessage(), e);
+            Toast.makeText(this, "Export failed: " + e.getMessage(), Toast.LENGTH_LONG).show();
+            return;
+        }
+        Uri uri = FileProvider.getUriForFile(this, "com.example.meditracker.provider", file);
+        Intent share = new Intent(Intent.ACTION_SEND)
+                .setType("text/csv")
+                .putExtra(Intent.EXTRA_STREAM, uri)
+                .addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(Intent.createChooser(share, "Export network timings"));
+    }
+
+    private void pickReports() {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[]{"application/pdf", "image/*"});
+        intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
+        pickReportsLauncher.launch(intent);
+    }
+
+    private List<Uri> pickedUris(Intent data) {
+        List<Uri> uris = new ArrayList<>();
+        ClipData clipData = data.getClipData();
+        if (clipData != null) {
+            for (int i = 0; i < clipData.getItemCount(); i++) {
+                uris.add(clipData.getItemAt(i).getUri());
+            }
+        } else if (data.getData() != null) {
+            uris.add(data.getData());
+        }
+        return uris;
+    }
+
+    private void startBatch(List<Uri> uris) {
+        if (uris.isEmpty()) {
+            Toast.makeText(this, "No reports selected", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        List<BatchAnalyzer.Item> items = new ArrayList<>();
+        for (Uri uri : uris) {
+            String mimeType = getContentResolver().getType(uri);
+            boolean pdf = mimeType == null || mimeType.equals("application/pdf");
+            items.add(new BatchAnalyzer.Item(uri, getFileName(uri), pdf));
+        }
+
+        showItems(items);
+        tvBatchStatus.setText("Processing " + items.size() + " reports...");
+
+        batch = new BatchAnalyzer(this, items);
+        batch.setListener(batchListener);
+        batch.start();
+    }
+
+    private void showItems(List<BatchAnalyzer.Item> items) {
+        tableBatchFiles.removeAllViews();
+        tableBatchResults.removeAllViews();
+        cardBatchResults.setVisibility(View.GONE);
+        statusViews.clear();
+        for (BatchAnalyzer.Item item : items) {
+            statusViews.add(addRow(tableBatchFiles, item.getName(), item.describe()));
+        }
+
+        btnSelectReports.setEnabled(false);
+        progressBatch.setVisibility(View.VISIBLE);
+        progressBatch.setMax(items.size());
+        progressBatch.setProgress(0);
+    }
+
+    private void updateOverallProgress(List<BatchAnalyzer.Item> items) {
+        int finished = 0;
+        for (BatchAnalyzer.Item item : items) {
+            if (item.getStage().isFinished()) {
+                finished++;
+            }
+        }
+        progressBatch.setProgress(finished);
+        tvBatchStatus.setText(finished + " of " + items.size() + " reports processed");
+    }
+
+    private void onBatchFinished(List<BatchAnalyzer.Item> items) {
+        batch.setListener(null);
+        batch = null;
+        btnSelectReports.setEnabled(true);
+        progressBatch.setVisibility(View.GONE);
+
+        List<BatchAnalyzer.Item> done = new ArrayList<>();
+        for (BatchAnalyzer.Item item : items) {
+            if (item.getStage() == BatchAnalyzer.Stage.DONE) {
+                done.add(item);
+            }
+        }
+        tvBatchStatus.setText(done.size() + " of " + items.size() + " reports analyzed");
+        if (!done.isEmpty()) {
+            showCombinedResults(done);
+        }
+    }
+
+    // Rows are parameters, columns are reports, so values can be compared across the stack
+    private void showCombinedResults(List<BatchAnalyzer.Item> done) {
+        tableBatchResults.removeAllViews();
+        Map<String, String[]> rows = new LinkedHashMap<>();
+        for (int column = 0; column < done.size(); column++) {
+            int col = column;
+            done.get(column).getResult().writeRows((label, value) -> {
+                String[] values = rows.get(label);
+                if (values == null) {
+                    values = new String[done.size()];
+                    rows.put(label, values);
+                }
+                values[col] = value;
+            });
+        }
+
+        TableRow header = new TableRow(this);
+        header.addView(cell("Parameter"));
+        for (BatchAnalyzer.Item item : done) {
+            header.addView(cell(item.getName()));
+        }
+        tableBatchResults.addView(header);
+
+        for (Map.Entry<String, String[]> entry : rows.entrySet()) {
+            TableRow row = new TableRow(this);
+            row.addView(cell(entry.getKey()));
+            for (String value : entry.getValue()) {
+                row.addView(cell(value == null || value.isEmpty() ? "N/A" : value));
+            }
+            tableBatchResults.addView(row);
+        }
+        cardBatchResults.setVisibility(View.VISIBLE);
+    }
+
+    // Adds a label/value row and returns the value view so it can be updated later
+    private TextView addRow(TableLayout table, String label, String value) {
+        TableRow row = new TableRow(this);
+        TextView valueView = cell(value);
+        row.addView(cell(label));
+        row.addView(valueView);
+        table.addView(row);
+        return valueView;
+    }
+
+    private TextView cell(String text) {
+        TextView view = new TextView(this);
+        view.setText(text);
+        view.setPadding(8, 8, 8, 8);
+        return view;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (batch != null) {
+            batch.setListener(null);
+            // Left for good: stop following the files; their uploads still finish in the queue
+            if (!isChangingConfigurations()) {
+                batch.cancel();
+            }
+            batch = null;
+        }
+    }
+
+    @SuppressLint("Range")
+    private String getFileName(Uri uri) {
+        String result = null;
+        if ("content".equals(uri.getScheme())) {
+            try (Cursor cursor = getContentResolver().query(uri, null, null, null, null)) {
+                if (cursor != null && cursor.moveToFirst()) {
+                    result = cursor.getString(cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME));
+                }
+            }
+        }
+        return result != null ? result : uri.getLastPathSegment();
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.meditracker;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.meditracker.utils.WebhookOutbox;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Resumes pending webhook submissions after a reboot. They do not depend on a signed-in user, so
+ * nothing else needs to be set up first.
+ */
+public class OutboxBootReceiver extends BroadcastReceiver {
+    private static final String TAG = "OutboxBootReceiver";
+    // Well inside the time the system allows a background broadcast
+    private static final long MAX_HOLD_MS = 50_000;
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction()) &&
+                !"android.intent.action.QUICKBOOT_POWERON".equals(intent.getAction())) {
+            return;
+        }
+        Log.d(TAG, "Device rebooted, draining the webhook outbox");
+
+        // Keeps the process alive while the first pass runs; anything still due after that is
+        // sent whenever the outbox next drains
+        PendingResult result = goAsync();
+        AtomicBoolean finished = new AtomicBoolean();
+        Runnable finish = () -> {
+            if (finished.compareAndSet(false, true)) {
+                result.finish();
+            }
+        };
+        new Handler(Looper.getMainLooper()).postDelayed(finish, MAX_HOLD_MS);
+        WebhookOutbox.getInstance(context).drain(finish);
+    }
+}
@@ -2,24 +2,200 @@
 package com.example.meditracker;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.net.Uri;
 import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import com.example.meditracker.utils.ContentHash;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+/**
+ * Stages content URIs into a content-addressed cache directory. Staged files are named by the
+ * SHA-256 of their bytes, so the same report is stored once no matter how often it is picked,
+ * and the directory is kept under {@link #MAX_CACHE_BYTES} by evicting least recently used files.
+ */
 public class ParcelFileDescriptorUtil {
+    private static final String TAG = "ParcelFileDescriptorUtil";
+    private static final String DIR_NAME = "staged_reports";
+    private static final String SUFFIX = ".staged";
+    private static final String TEMP_PREFIX = "staging";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final long MAX_CACHE_BYTES = 200L * 1024 * 1024;
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    // Whether copies left behind by an earlier process have been deleted; guarded by the class lock
+    private static boolean tempsSwept;
+
+    // Same URI, size and modification time as an earlier pick in this process: reuse the staged
+    // file without copying
+    private static final Map<String, File> recentlyStaged = new LinkedHashMap<String, File>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, File> eldest) {
+            return size() > 32;
+        }
+    };
+
     public static ParcelFileDescriptor getFileDescriptor(Context context, Uri uri) throws Exception {
-        InputStream input = context.getContentResolver().openInputStream(uri);
-        File file = File.createTempFile("temp_pdf", ".pdf", context.getCacheDir());
-        try (FileOutputStream output = new FileOutputStream(file)) {
-            byte[] buffer = new byte[1024];
-            int len;
-            while ((len = input.read(buffer)) > 0) {
-                output.write(buffer, 0, len);
+        File file = stageFile(context, uri);
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    // Copies a content URI into the cache dir so it can be opened by several readers at once
+    public static File stageFile(Context context, Uri uri) throws IOException {
+        File dir = stagingDir(context);
+
+        // Without both a size and a modification time an edited file could look unchanged, so it
+        // is copied again; the content hash still avoids storing it twice
+        String memoKey = memoKey(context, uri);
+        if (memoKey != null) {
+            synchronized (recentlyStaged) {
+                File known = recentlyStaged.get(memoKey);
+                if (known != null && known.isFile()) {
+                    known.setLastModified(System.currentTimeMillis());
+                    return known;
+                }
+            }
+        }
+
+        File temp = File.createTempFile(TEMP_PREFIX, TEMP_SUFFIX, dir);
+        String hash;
+        try (InputStream input = context.getContentResolver().openInputStream(uri)) {
+            if (input == null) throw new IOException("Failed to open input stream");
+            hash = copyAndHash(input, temp);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+
+        File staged = new File(dir, hash + SUFFIX);
+        if (staged.isFile()) {
+            temp.delete();
+            staged.setLastModified(System.currentTimeMillis());
+            Log.d(TAG, "Reusing staged copy " + staged.getName());
+        } else if (!temp.renameTo(staged)) {
+            temp.delete();
+            throw new IOException("Could not move staged file to " + staged);
+        }
+
+        if (memoKey != null) {
+            synchronized (recentlyStaged) {
+                recentlyStaged.put(memoKey, staged);
+            }
+        }
+        evict(dir, staged);
+        return staged;
+    }
+
+    /** Returns the content hash a staged file is keyed by, or {@code null} for other files. */
+    public static String contentHash(File stagedFile) {
+        String name = stagedFile.getName();
+        return name.endsWith(SUFFIX) ? name.substring(0, name.length() - SUFFIX.length()) : null;
+    }
+
+    // Single pass: each direct buffer is hashed and then written through the file channel
+    private static String copyAndHash(InputStream input, File target) throws IOException {
+        MessageDigest digest = ContentHash.newDigest();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (ReadableByteChannel in = Channels.newChannel(input);
+             FileChannel out = new FileOutputStream(target).getChannel()) {
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+            }
+        }
+        return ContentHash.toHex(digest.digest());
+    }
+
+    /**
+     * Creates the staging directory. The first call in a process also deletes temp copies that an
+     * earlier process left behind when it died mid-copy; none of this process's exist yet.
+     */
+    private static synchronized File stagingDir(Context context) throws IOException {
+        File dir = new File(context.getCacheDir(), DIR_NAME);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        if (!tempsSwept) {
+            tempsSwept = true;
+            File[] temps = dir.listFiles((d, name) -> name.startsWith(TEMP_PREFIX) && name.endsWith(TEMP_SUFFIX));
+            if (temps != null) {
+                for (File temp : temps) {
+                    if (temp.delete()) {
+                        Log.d(TAG, "Deleted leftover " + temp.getName());
+                    }
+                }
+            }
+        }
+        return dir;
+    }
+
+    // URI, size and modification time, or null when the source does not report both
+    private static String memoKey(Context context, Uri uri) {
+        if ("file".equals(uri.getScheme()) && uri.getPath() != null) {
+            File file = new File(uri.getPath());
+            return file.isFile() ? uri + "#" + file.length() + "#" + file.lastModified() : null;
+        }
+        if (!"content".equals(uri.getScheme())) {
+            return null;
+        }
+        try (Cursor cursor = context.getContentResolver().query(uri,
+                new String[]{OpenableColumns.SIZE, DocumentsContract.Document.COLUMN_LAST_MODIFIED},
+                null, null, null)) {
+            if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0) && !cursor.isNull(1)) {
+                return uri + "#" + cursor.getLong(0) + "#" + cursor.getLong(1);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Could not query size of " + uri + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    // Deletes least recently used staged files until the directory fits the size cap
+    private static void evict(File dir, File keep) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_CACHE_BYTES) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (total <= MAX_CACHE_BYTES) {
+                break;
+            }
+            if (file.equals(keep)) {
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                Log.d(TAG, "Evicted staged file " + file.getName());
             }
         }
-        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
     }
 }
@@ -8,6 +8,8 @@ import android.widget.Button;
 import android.widget.LinearLayout;
 import android.widget.ProgressBar;
 import androidx.appcompat.app.AppCompatActivity;
+import com.example.meditracker.utils.UploadQueue;
+import com.example.meditracker.utils.WebhookOutbox;
 import com.google.firebase.auth.FirebaseAuth;
 
 public class StartupActivity extends AppCompatActivity {
@@ -20,6 +22,11 @@ public class StartupActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_startup);
 
+        // Resumes webhook submissions and report uploads left over from an earlier run, and
+        // retries uploads that failed while the app stayed in memory
+        WebhookOutbox.getInstance(this);
+        UploadQueue.getInstance(this).retryFailed();
+
         auth = FirebaseAuth.getInstance();
         progressBar = findViewById(R.id.progress_bar);
         buttonContainer = findViewById(R.id.button_container);
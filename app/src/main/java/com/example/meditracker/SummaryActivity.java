@@ -2,40 +2,94 @@ package com.example.meditracker;
 
 import static android.content.ContentValues.TAG;
 
+import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.util.Log;
+import android.view.View;
 import android.widget.Button;
 import android.widget.TableLayout;
 import android.widget.TableRow;
 import android.widget.TextView;
-import android.widget.Toast;
 
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
-
-import org.json.JSONObject;
-
+import androidx.core.content.ContextCompat;
+
+import com.example.meditracker.utils.CircuitBreaker;
+import com.example.meditracker.utils.ContentHash;
+import com.example.meditracker.utils.ExtractionCache;
+import com.example.meditracker.utils.InstantSummary;
+import com.example.meditracker.utils.LabResult;
+import com.example.meditracker.utils.ReportPayload;
+import com.example.meditracker.utils.SummaryCache;
+import com.example.meditracker.utils.SummaryStream;
+import com.example.meditracker.utils.WebhookClient;
+import com.example.meditracker.utils.WebhookOutbox;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import okhttp3.MediaType;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class SummaryActivity extends AppCompatActivity {
 
     private TableLayout tableExtractedData;
     private TextView tvSummaryContent;
-    private String extractedText;
+    private TextView tvServiceStatus;
+    private TextView tvInstantSummary;
+    private View cardInstantSummary;
+    private LabResult labResult;
     private String reportUrl;
+    private String summaryKey;
+    private WebhookClient.Exchange<String> exchange;
+    // Set off the main thread once the parameters are hashed
+    private volatile String fingerprint;
+    // A cached summary is on screen and a fresh one is being fetched behind it
+    private volatile boolean revalidating;
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+    private boolean awaitingSummary;
+
+    private static final String STATE_SUMMARY_KEY = "summary_key";
+    private static final String STATE_REVALIDATING = "revalidating";
+
+    private static final String QUEUED_MESSAGE =
+            "Connection problem. Your report is saved and will be sent automatically; "
+                    + "the summary appears here once it has been delivered.";
+
+    // Shows the summary if a queued submission for this screen is delivered later
+    private final WebhookOutbox.Listener outboxListener = new WebhookOutbox.Listener() {
+        @Override
+        public void onDelivered(String key, String responseBody) {
+            if (key.equals(summaryKey)) {
+                runOnUiThread(() -> showSummary(responseBody));
+            }
+        }
 
-    Button btnBack;
+        @Override
+        public void onRetryScheduled(String key, int attempts, long delayMs) {
+        }
+
+        @Override
+        public void onDropped(String key, String reason) {
+            if (key.equals(summaryKey)) {
+                runOnUiThread(() -> tvSummaryContent.setText("Could not send report: " + reason));
+            }
+        }
+    };
+
+    private final CircuitBreaker.Listener breakerListener =
+            (breaker, state) -> runOnUiThread(this::updateServiceStatus);
 
-    private final String n8nWebhookUrl = "https://ruban112.app.n8n.cloud/webhook-test/medvision-webhook";
+    Button btnBack;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -44,19 +98,35 @@ public class SummaryActivity extends AppCompatActivity {
 
         tableExtractedData = findViewById(R.id.tableExtractedData);
         tvSummaryContent = findViewById(R.id.tvSummaryContent);
+        tvServiceStatus = findViewById(R.id.tvServiceStatus);
+        tvInstantSummary = findViewById(R.id.tvInstantSummary);
+        cardInstantSummary = findViewById(R.id.cardInstantSummary);
         btnBack = findViewById(R.id.btn_back);
 
-        extractedText = getIntent().getStringExtra("extracted_text");
         reportUrl = getIntent().getStringExtra("report_url");
 
-        Map<String, String> extractedParams = extractParameters(extractedText);
-        if (reportUrl != null && !reportUrl.isEmpty()) {
-            extractedParams.put("Report URL", reportUrl);
+        WebhookClient.getInstance(this).breaker(WebhookClient.Endpoint.SUMMARY).addListener(breakerListener);
+        if (savedInstanceState != null) {
+            revalidating = savedInstanceState.getBoolean(STATE_REVALIDATING);
         }
-
-        populateTable(extractedParams);
-
-        sendExtractedData(extractedText, reportUrl);
+        String savedKey = savedInstanceState != null ? savedInstanceState.getString(STATE_SUMMARY_KEY) : null;
+
+        // The result may have to come from the extraction cache on disk
+        ioExecutor.execute(() -> {
+            LabResult result = readLabResult();
+            runOnUiThread(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                labResult = result;
+                labResult.writeRows(this::addTableRow);
+                if (reportUrl != null && !reportUrl.isEmpty()) {
+                    addTableRow("Report URL", reportUrl);
+                }
+                showInstantSummary();
+                loadSummary(savedKey);
+            });
+        });
 
         btnBack.setOnClickListener(v -> {
             Log.d(TAG, "Back button clicked");
@@ -65,98 +135,292 @@ public class SummaryActivity extends AppCompatActivity {
         });
     }
 
-    private void populateTable(Map<String, String> data) {
-        for (Map.Entry<String, String> entry : data.entrySet()) {
-            TableRow row = new TableRow(this);
+    // Runs on the IO executor
+    private LabResult readLabResult() {
+        Serializable result = getIntent().getSerializableExtra("lab_result");
+        if (result instanceof LabResult) {
+            return (LabResult) result;
+        }
+        // Callers without a result may still point at a cached extraction
+        ExtractionCache.Entry cached = ExtractionCache.getInstance(this)
+                .get(getIntent().getStringExtra("content_hash"));
+        if (cached != null) {
+            return cached.result;
+        }
+        Log.w(TAG, "No lab result was passed in");
+        return new LabResult();
+    }
+
+    private void addTableRow(String label, String value) {
+        TableRow row = new TableRow(this);
 
-            TextView paramView = new TextView(this);
-            paramView.setText(entry.getKey());
-            paramView.setPadding(8, 8, 8, 8);
+        TextView paramView = new TextView(this);
+        paramView.setText(label);
+        paramView.setPadding(8, 8, 8, 8);
 
-            TextView valueView = new TextView(this);
-            valueView.setText(entry.getValue().isEmpty() ? "N/A" : entry.getValue());
-            valueView.setPadding(8, 8, 8, 8);
+        TextView valueView = new TextView(this);
+        valueView.setText(value.isEmpty() ? "N/A" : value);
+        valueView.setPadding(8, 8, 8, 8);
+
+        row.addView(paramView);
+        row.addView(valueView);
+        tableExtractedData.addView(row);
+    }
 
-            row.addView(paramView);
-            row.addView(valueView);
-            tableExtractedData.addView(row);
+    // Reference-range check on the device, so there is something to read while the AI summary
+    // is on its way
+    private void showInstantSummary() {
+        long start = System.nanoTime();
+        String summary = InstantSummary.format(InstantSummary.evaluate(labResult));
+        Log.d(TAG, "Instant summary took " + (System.nanoTime() - start) / 1000 + " us");
+        if (summary.isEmpty()) {
+            cardInstantSummary.setVisibility(View.GONE);
+            return;
+        }
+        tvInstantSummary.setText(summary);
+        cardInstantSummary.setVisibility(View.VISIBLE);
+    }
+
+    // A summary cached for the same readings is shown at once. The webhook is only asked when there
+    // is none, or behind the cached one when it is getting old. After a rotation the request the
+    // previous instance sent is picked up again instead of being sent a second time.
+    private void loadSummary(String savedKey) {
+        ioExecutor.execute(() -> {
+            fingerprint = fingerprintReport();
+            SummaryCache.Entry cached = SummaryCache.getInstance(this).get(fingerprint);
+            runOnUiThread(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                if (cached != null) {
+                    Log.d(TAG, "Showing cached summary" + (cached.needsRevalidation ? ", revalidating" : ""));
+                    setSummaryText(cached.summary);
+                }
+                if (savedKey != null && resumeSummary(savedKey, cached != null)) {
+                    return;
+                }
+                if (cached == null) {
+                    sendExtractedData(labResult, reportUrl);
+                } else if (cached.needsRevalidation) {
+                    revalidating = true;
+                    sendExtractedData(labResult, reportUrl);
+                }
+            });
+        });
+    }
+
+    // Returns false if nothing is left of the request sent under savedKey
+    private boolean resumeSummary(String savedKey, boolean hasCachedSummary) {
+        WebhookClient.Exchange<String> exchange = WebhookClient.getInstance(this).find(savedKey);
+        if (exchange != null) {
+            Log.d(TAG, "Reattaching to summary request " + savedKey);
+            WebhookClient.getInstance(this).attach(this, exchange);
+            observe(exchange);
+            return true;
+        }
+        if (WebhookOutbox.getInstance(this).isPending(savedKey)) {
+            summaryKey = savedKey;
+            WebhookOutbox.getInstance(this).addListener(outboxListener);
+            if (!hasCachedSummary) {
+                tvSummaryContent.setText(QUEUED_MESSAGE);
+            }
+            return true;
         }
+        return false;
     }
 
-    private void sendExtractedData(String text, String url) {
-        Map<String, String> extractedParams = extractParameters(text);
+    // Summaries are cached per user and report; without either nothing is cached
+    private String fingerprintReport() {
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        if (user == null) {
+            return null;
+        }
+        try {
+            String reportHash = getIntent().getStringExtra("content_hash");
+            String textPath = getIntent().getStringExtra("extracted_text_path");
+            if (reportHash == null && textPath != null) {
+                reportHash = ContentHash.of(new File(textPath));
+            }
+            return reportHash != null ? labResult.fingerprint(user.getUid(), reportHash) : null;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not fingerprint report: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void sendExtractedData(LabResult result, String url) {
+        Map<String, String> extraFields = new HashMap<>();
         if (url != null && !url.isEmpty()) {
-            extractedParams.put("report_url", url);
-        }
-
-        new Thread(() -> {
-            try {
-                OkHttpClient client = new OkHttpClient.Builder()
-                        .callTimeout(5, java.util.concurrent.TimeUnit.MINUTES)
-                        .connectTimeout(1, java.util.concurrent.TimeUnit.MINUTES)
-                        .readTimeout(5, java.util.concurrent.TimeUnit.MINUTES)
-                        .writeTimeout(5, java.util.concurrent.TimeUnit.MINUTES)
-                        .build();
-
-                JSONObject jsonObject = new JSONObject(extractedParams);
-                RequestBody body = RequestBody.create(
-                        MediaType.parse("application/json"),
-                        jsonObject.toString()
-                );
-
-                Request request = new Request.Builder()
-                        .url(n8nWebhookUrl)
-                        .post(body)
-                        .build();
-
-                Response response = client.newCall(request).execute();
-                String jsonResponse = response.body() != null ? response.body().string() : "";
-
-                try {
-                    JSONObject responseObj = new JSONObject(jsonResponse);
-                    String summary = responseObj.optString("summary", "");
-
-                    runOnUiThread(() -> {
-                        if (!summary.isEmpty()) {
-                            tvSummaryContent.setText(summary);
-                            tvSummaryContent.setMovementMethod(android.text.method.ScrollingMovementMethod.getInstance());
-                        } else {
-                            tvSummaryContent.setText("No summary received.\n" + (jsonResponse != null ? jsonResponse : "No response data"));
-                        }
-                    });
-
-                } catch (Exception parseError) {
-                    runOnUiThread(() -> tvSummaryContent.setText("Could not parse summary.\n" + jsonResponse));
+            extraFields.put("report_url", url);
+        }
+
+        // The raw report text rides along, streamed from its file into the compressed body.
+        // Lab values keep the display-label keys the summary workflow was built against.
+        String textPath = getIntent().getStringExtra("extracted_text_path");
+        ReportPayload payload = ReportPayload.labelled(result, extraFields,
+                textPath != null ? new File(textPath) : null);
+
+        // Cancelled along with this screen; the outbox then delivers the report in the background
+        WebhookClient.Exchange<String> exchange = WebhookClient.getInstance(this).postStreaming(this,
+                WebhookClient.Endpoint.SUMMARY, payload,
+                summaryReader(getApplicationContext(), fingerprint, System.nanoTime()));
+        observe(exchange);
+    }
+
+    private void observe(WebhookClient.Exchange<String> exchange) {
+        this.exchange = exchange;
+        summaryKey = exchange.key();
+        WebhookOutbox.getInstance(this).addListener(outboxListener);
+        awaitingSummary = !exchange.isDone();
+        updateServiceStatus();
+
+        // While revalidating, the cached summary is replaced only once the new one is complete
+        exchange.setProgressListener(soFar -> runOnUiThread(() -> {
+            if (isDestroyed() || revalidating) {
+                return;
+            }
+            if (awaitingSummary) {
+                awaitingSummary = false;
+                updateServiceStatus();
+            }
+            setSummaryText(soFar);
+        }));
+
+        exchange.whenCompleteAsync((summary, error) -> {
+            if (isDestroyed()) {
+                return;
+            }
+            awaitingSummary = false;
+            updateServiceStatus();
+            if (error == null) {
+                if (summary != null && !summary.isEmpty()) {
+                    setSummaryText(summary);
+                } else if (!revalidating) {
+                    tvSummaryContent.setText("No summary received.");
+                }
+                return;
+            }
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (cause instanceof CancellationException) {
+                return;
+            }
+            if (cause instanceof WebhookClient.WebhookException && ((WebhookClient.WebhookException) cause).queued) {
+                rememberQueuedRequest();
+            }
+            if (revalidating) {
+                // The cached summary stays on screen
+                Log.w(TAG, "Summary revalidation failed: " + cause.getMessage());
+                return;
+            }
+            if (cause instanceof WebhookClient.CircuitOpenException) {
+                long retryIn = ((WebhookClient.CircuitOpenException) cause).retryInMs;
+                tvSummaryContent.setText("The summary service is not responding right now, so the report was not "
+                        + "sent yet. It is saved and will be sent automatically (next check in "
+                        + TimeUnit.MILLISECONDS.toSeconds(retryIn) + " s); the summary appears here once it has "
+                        + "been delivered.");
+            } else if (cause instanceof WebhookClient.WebhookException && ((WebhookClient.WebhookException) cause).queued) {
+                // Keep whatever part of a streamed summary already arrived
+                if (tvSummaryContent.length() > 0) {
+                    tvSummaryContent.append("\n\n" + QUEUED_MESSAGE);
+                } else {
+                    tvSummaryContent.setText(QUEUED_MESSAGE);
                 }
+            } else {
+                tvSummaryContent.setText("Could not get a summary: " + cause.getMessage());
+            }
+        }, ContextCompat.getMainExecutor(this));
+    }
 
-            } catch (Exception e) {
-                e.printStackTrace();
-                runOnUiThread(() -> Toast.makeText(this, "Failed to send data to n8n", Toast.LENGTH_SHORT).show());
+    // Streams the summary to whoever observes the exchange when the webhook sends it in pieces,
+    // otherwise reads it from the JSON response. Caches it either way. Holds no reference to the
+    // screen, so a request that outlives a rotation does not keep the old screen alive.
+    private static WebhookClient.StreamReader<String> summaryReader(Context appContext, String fingerprint,
+                                                                   long sentAt) {
+        return (body, exchange) -> {
+            String summary;
+            if (SummaryStream.isStreaming(body)) {
+                SummaryStream stream = new SummaryStream(sentAt);
+                summary = stream.read(body, (chunk, soFar) -> exchange.publishProgress(soFar));
+                Log.d(TAG, "Summary streamed: first text after " + stream.timeToFirstTextMs() + " ms, complete after "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sentAt) + " ms");
+            } else {
+                summary = SummaryCache.parseSummary(body.string());
+                Log.d(TAG, "Summary received after "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sentAt) + " ms");
             }
-        }).start();
+            SummaryCache.getInstance(appContext).put(fingerprint, summary);
+            return summary;
+        };
     }
 
-    private Map<String, String> extractParameters(String text) {
-        Map<String, String> params = new HashMap<>();
-        if (text == null) text = "";
+    // The outbox delivers the request after this screen is gone; its summary still goes to the cache
+    private void rememberQueuedRequest() {
+        String key = summaryKey;
+        String forFingerprint = fingerprint;
+        if (key != null && !ioExecutor.isShutdown()) {
+            ioExecutor.execute(() -> SummaryCache.getInstance(this).expect(key, forFingerprint));
+        }
+    }
 
-        params.put("Patient Name", findValue(text, "(?i)Patient\\s*Name\\s*[:\\-]?\\s*([A-Za-z ]+)"));
-        params.put("Age", findValue(text, "(?i)Age\\s*[:\\-]?\\s*(\\d{1,3})"));
-        params.put("Email", findValue(text, "(?i)Email\\s*[:\\-]?\\s*([\\w._%+-]+@[\\w.-]+\\.[A-Za-z]{2,})"));
-        params.put("Blood Pressure", findValue(text, "(?i)Blood\\s*Pressure\\s*[:\\-]?\\s*(\\d{2,3}\\/?\\d{2,3})"));
-        params.put("RBC", findValue(text, "(?i)RBC\\s*[:\\-]?\\s*([0-9.]+)"));
-        params.put("WBC", findValue(text, "(?i)WBC\\s*[:\\-]?\\s*([0-9.]+)"));
-        params.put("Hemoglobin", findValue(text, "(?i)Hemoglobin\\s*[:\\-]?\\s*([0-9.]+)"));
-        params.put("Platelets", findValue(text, "(?i)Platelets\\s*[:\\-]?\\s*([0-9,]+)"));
-        params.put("Blood Sugar", findValue(text, "(?i)Blood\\s*Sugar\\s*[:\\-]?\\s*([0-9.]+)"));
-        params.put("Cholesterol", findValue(text, "(?i)Cholesterol\\s*[:\\-]?\\s*([0-9.]+)"));
+    private void showSummary(String jsonResponse) {
+        String summary = SummaryCache.parseSummary(jsonResponse);
+        if (!summary.isEmpty()) {
+            setSummaryText(summary);
+        } else if (!revalidating) {
+            tvSummaryContent.setText("No summary received.\n" + jsonResponse);
+        }
+    }
 
-        return params;
+    // Says what is holding the summary up instead of leaving the card blank while waiting
+    private void updateServiceStatus() {
+        String status = null;
+        if (awaitingSummary && !revalidating) {
+            CircuitBreaker.Snapshot health =
+                    WebhookClient.getInstance(this).breaker(WebhookClient.Endpoint.SUMMARY).snapshot();
+            switch (health.state) {
+                case OPEN:
+                    status = "The summary service is not responding. Checking again in "
+                            + TimeUnit.MILLISECONDS.toSeconds(health.retryInMs) + " s.";
+                    break;
+                case HALF_OPEN:
+                    status = "Checking whether the summary service is back...";
+                    break;
+                default:
+                    status = health.calls > 0
+                            ? "Waiting for the AI summary, usually about "
+                                    + Math.max(1, TimeUnit.MILLISECONDS.toSeconds(health.p50LatencyMs)) + " s..."
+                            : "Waiting for the AI summary...";
+            }
+        }
+        tvServiceStatus.setText(status);
+        tvServiceStatus.setVisibility(status != null ? View.VISIBLE : View.GONE);
     }
 
-    private String findValue(String text, String regex) {
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(text);
-        return matcher.find() ? matcher.group(1).trim() : "";
+    private void setSummaryText(String summary) {
+        tvSummaryContent.setText(summary);
+        tvSummaryContent.setMovementMethod(android.text.method.ScrollingMovementMethod.getInstance());
+    }
+
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SUMMARY_KEY, summaryKey);
+        outState.putBoolean(STATE_REVALIDATING, revalidating);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // The summary request itself is cancelled by WebhookClient along with this screen, unless
+        // the screen is only being recreated, in which case the new one takes it over
+        if (exchange != null) {
+            exchange.setProgressListener(null);
+            if (!isChangingConfigurations() && !exchange.isDone()) {
+                rememberQueuedRequest();
+            }
+        }
+        WebhookOutbox.getInstance(this).removeListener(outboxListener);
+        WebhookClient.getInstance(this).breaker(WebhookClient.Endpoint.SUMMARY).removeListener(breakerListener);
+        ioExecutor.shutdown();
     }
 }
@@ -18,46 +18,54 @@ import android.widget.ProgressBar;
 import android.widget.Toast;
 
 import androidx.activity.result.ActivityResultLauncher;
+import androidx.annotation.NonNull;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
+import androidx.core.content.ContextCompat;
 import androidx.core.content.FileProvider;
 
-import com.cloudinary.Cloudinary;
-import com.cloudinary.utils.ObjectUtils;
+import com.example.meditracker.utils.ImageCompressor;
+import com.example.meditracker.utils.ReportPipeline;
+import com.example.meditracker.utils.UploadQueue;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.firestore.FirebaseFirestore;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletionException;
 
 public class UploadReportActivity extends AppCompatActivity {
 
     private static final String TAG = "UploadReportActivity";
+    private static final String STATE_PIPELINE_HASH = "pipeline_hash";
+    private static final String STATE_UPLOAD_KEY = "upload_key";
+    private static final String STATE_UPLOADED_URL = "uploaded_url";
     private EditText etReportName;
     private ProgressBar progressBar;
     private Button btnAnalyze;
-    private FirebaseFirestore firestore;
     private FirebaseAuth mAuth;
-    private Cloudinary cloudinary;
     private Uri lastFileUri;
     private String uploadedFileUrl = null;  // Initialize as null
+    private String pipelineHash;
+    private String uploadKey;
     private String fileType;
     private File photoFile;
     private Uri photoUri;
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final UploadQueue.Listener uploadListener = job -> {
+        if (job.key.equals(uploadKey)) {
+            showUpload(job, true);
+        }
+    };
 
     private ActivityResultLauncher<Intent> selectFileLauncher;
     private ActivityResultLauncher<Intent> captureImageLauncher;
+    // Upload progress is shown as a notification; without the permission uploads just run quietly
+    private final ActivityResultLauncher<String> notificationPermissionLauncher = registerForActivityResult(
+            new ActivityResultContracts.RequestPermission(), granted -> { });
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -79,14 +87,23 @@ public class UploadReportActivity extends AppCompatActivity {
 
         Button btnUploadPdf = findViewById(R.id.btn_upload_pdf);
         Button btnCaptureImage = findViewById(R.id.btn_capture_image);
+        Button btnBatchAnalyze = findViewById(R.id.btn_batch_analyze);
         btnAnalyze = findViewById(R.id.btn_analyze);
 
-        firestore = FirebaseFirestore.getInstance();
         mAuth = FirebaseAuth.getInstance();
-        cloudinary = new Cloudinary(ObjectUtils.asMap(
-                "cloud_name", "dfjuuur7l",
-                "api_key", "155684526852715",
-                "api_secret", "ZsoPKadYWegNGiAlXc2nmuVeUkU"));
+
+        // Uploads outlive this screen; pick up the one started before it was recreated. A job
+        // leaves the queue once recorded, so a finished upload is restored from its saved URL.
+        UploadQueue.getInstance(this).addListener(uploadListener);
+        if (savedInstanceState != null) {
+            pipelineHash = savedInstanceState.getString(STATE_PIPELINE_HASH);
+            uploadKey = savedInstanceState.getString(STATE_UPLOAD_KEY);
+            uploadedFileUrl = savedInstanceState.getString(STATE_UPLOADED_URL);
+            UploadQueue.Job job = UploadQueue.getInstance(this).find(uploadKey);
+            if (job != null) {
+                showUpload(job, false);
+            }
+        }
 
         selectFileLauncher = registerForActivityResult(
                 new ActivityResultContracts.StartActivityForResult(),
@@ -115,10 +132,14 @@ public class UploadReportActivity extends AppCompatActivity {
 
         btnCaptureImage.setOnClickListener(v -> captureImage());
 
+        btnBatchAnalyze.setOnClickListener(v -> startActivity(new Intent(this, BatchAnalyzeActivity.class)));
+
         btnAnalyze.setOnClickListener(v -> {
             if (uploadedFileUrl != null && !uploadedFileUrl.isEmpty()) {
                 Intent intent = new Intent(this, AnalyzeReportActivity.class);
                 intent.putExtra("report_url", uploadedFileUrl);  // <-- Pass with key "report_url"
+                // Lets the Analyze screen use the extraction that ran during the upload
+                intent.putExtra("content_hash", pipelineHash);
                 startActivity(intent);
             } else {
                 Toast.makeText(this, "Please upload a report first.", Toast.LENGTH_SHORT).show();
@@ -162,68 +183,99 @@ public class UploadReportActivity extends AppCompatActivity {
         return File.createTempFile(imageFileName, ".jpg", storageDir);
     }
 
+    // The report is staged once and handed to ReportPipeline, which extracts its text while the
+    // app-scoped UploadQueue uploads and records it, so Analyze opens with the parameters ready.
+    // This screen only observes the job; leaving or rotating it does not stop the upload.
     private void uploadFileToCloudinary(Uri fileUri, String type) {
-        progressBar.setVisibility(View.VISIBLE);
-        btnAnalyze.setEnabled(false);
-        executor.execute(() -> {
-            try (InputStream inputStream = getContentResolver().openInputStream(fileUri)) {
-                if (inputStream == null) throw new IOException("Failed to open input stream");
-                Map uploadResult = cloudinary.uploader().upload(inputStream, ObjectUtils.asMap(
-                        "resource_type", type.equals("pdf") ? "raw" : "image"));
-                uploadedFileUrl = uploadResult.get("secure_url").toString();
-                runOnUiThread(() -> saveReportData(uploadedFileUrl, type));
-            } catch (Exception e) {
-                runOnUiThread(() -> {
-                    progressBar.setVisibility(View.GONE);
-                    Toast.makeText(this, "Upload failed: " + e.getMessage(), Toast.LENGTH_LONG).show();
-                    Log.e(TAG, "Upload error: " + e.getMessage(), e);
-                });
-            }
-        });
-    }
-
-    private void saveReportData(String fileUrl, String type) {
         String reportName = etReportName.getText().toString().trim();
         if (reportName.isEmpty()) {
-            progressBar.setVisibility(View.GONE);
             Toast.makeText(this, "Please enter a report name", Toast.LENGTH_SHORT).show();
             return;
         }
 
         FirebaseUser currentUser = mAuth.getCurrentUser();
         if (currentUser == null) {
-            progressBar.setVisibility(View.GONE);
             Toast.makeText(this, "User not authenticated", Toast.LENGTH_SHORT).show();
             return;
         }
 
-        String userId = currentUser.getUid();
-        String timestamp = new SimpleDateFormat("dd-MM-yyyy HH:mm:ss", Locale.getDefault()).format(new Date());
-
-        Map<String, Object> reportData = new HashMap<>();
-        reportData.put("name", reportName);
-        reportData.put("url", fileUrl);
-        reportData.put("timestamp", timestamp);
-        reportData.put("fileType", type);
-
-        firestore.collection("users")
-                .document(userId)
-                .collection("reports")
-                .add(reportData)
-                .addOnSuccessListener(docRef -> {
-                    progressBar.setVisibility(View.GONE);
-                    btnAnalyze.setEnabled(true);
-                    Toast.makeText(this, "Report uploaded successfully", Toast.LENGTH_SHORT).show();
-                })
-                .addOnFailureListener(e -> {
-                    progressBar.setVisibility(View.GONE);
-                    Toast.makeText(this, "Firestore error: " + e.getMessage(), Toast.LENGTH_LONG).show();
-                });
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS)
+                != PackageManager.PERMISSION_GRANTED) {
+            notificationPermissionLauncher.launch(Manifest.permission.POST_NOTIFICATIONS);
+        }
+
+        progressBar.setIndeterminate(true);
+        progressBar.setVisibility(View.VISIBLE);
+        btnAnalyze.setEnabled(false);
+        uploadedFileUrl = null;
+        pipelineHash = null;
+        uploadKey = null;
+        ReportPipeline.getInstance(this).start(fileUri, type, reportName, currentUser.getUid())
+                .whenCompleteAsync((run, error) -> {
+                    if (isDestroyed()) {
+                        return;
+                    }
+                    if (error != null) {
+                        onUploadFailed(error instanceof CompletionException ? error.getCause() : error);
+                        return;
+                    }
+                    pipelineHash = run.contentHash;
+                    uploadKey = run.upload.key;
+                    showUpload(run.upload, true);
+                }, ContextCompat.getMainExecutor(this));
+    }
+
+    // announce is false when a recreated screen catches up with a job that may have ended long ago
+    private void showUpload(UploadQueue.Job job, boolean announce) {
+        switch (job.getState()) {
+            case DONE:
+                progressBar.setVisibility(View.GONE);
+                uploadedFileUrl = job.getUrl();
+                btnAnalyze.setEnabled(true);
+                if (announce) {
+                    ImageCompressor.Result compressed = job.getCompression();
+                    if (compressed != null && compressed.savedFraction() > 0) {
+                        Toast.makeText(this, "Photo compressed: " + compressed.describe(), Toast.LENGTH_SHORT).show();
+                    }
+                    Toast.makeText(this, job.isReused() ? "This report was uploaded before, reusing it"
+                            : "Report uploaded successfully", Toast.LENGTH_SHORT).show();
+                }
+                break;
+            case FAILED:
+                progressBar.setVisibility(View.GONE);
+                if (announce) {
+                    Toast.makeText(this, "Upload failed: " + job.getError(), Toast.LENGTH_LONG).show();
+                }
+                break;
+            default:
+                int progress = job.getProgress();
+                progressBar.setVisibility(View.VISIBLE);
+                progressBar.setIndeterminate(progress < 0);
+                progressBar.setMax(100);
+                progressBar.setProgress(Math.max(progress, 0));
+                btnAnalyze.setEnabled(false);
+                break;
+        }
+    }
+
+    private void onUploadFailed(Throwable e) {
+        progressBar.setVisibility(View.GONE);
+        Toast.makeText(this, "Upload failed: " + e.getMessage(), Toast.LENGTH_LONG).show();
+        Log.e(TAG, "Upload error: " + e.getMessage(), e);
+    }
+
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_PIPELINE_HASH, pipelineHash);
+        outState.putString(STATE_UPLOAD_KEY, uploadKey);
+        outState.putString(STATE_UPLOADED_URL, uploadedFileUrl);
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        executor.shutdown();
+        UploadQueue.getInstance(this).removeListener(uploadListener);
     }
 }
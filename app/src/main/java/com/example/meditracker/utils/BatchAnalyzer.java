@@ -0,0 +1,289 @@
+package com.example.meditracker.utils;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a batch of picked reports through {@link ReportPipeline}: each file is staged, extracted
+ * (or served from the extraction cache) and uploaded and recorded by the app-scoped
+ * {@link UploadQueue}, then submitted to the n8n webhook. At most {@link #MAX_CONCURRENT_FILES}
+ * files are in flight at once. The batch is not tied to the screen that started it: a recreated
+ * screen re-attaches through {@link #current()}, and uploads carry on even if the batch is
+ * cancelled. Progress is reported per file on the main thread.
+ */
+public class BatchAnalyzer {
+    private static final String TAG = "BatchAnalyzer";
+
+    // Enough to overlap one file's upload with another's extraction without starving PdfTextEngine
+    private static final int MAX_CONCURRENT_FILES = 3;
+
+    public enum Stage {
+        QUEUED("Queued"),
+        STAGING("Reading file"),
+        EXTRACTING("Extracting text"),
+        UPLOADING("Uploading"),
+        SUBMITTING("Submitting"),
+        DONE("Done"),
+        FAILED("Failed");
+
+        public final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        public boolean isFinished() {
+            return this == DONE || this == FAILED;
+        }
+    }
+
+    /** One picked file and how far it has got. Fields are written by batch threads. */
+    public static class Item {
+        private final Uri uri;
+        private final String name;
+        private final boolean pdf;
+        private volatile Stage stage = Stage.QUEUED;
+        private volatile int pagesDone;
+        private volatile int pageCount;
+        private volatile LabResult result;
+        private volatile String reportUrl;
+        private volatile String contentHash;
+        private volatile String error;
+
+        public Item(Uri uri, String name, boolean pdf) {
+            this.uri = uri;
+            this.name = name;
+            this.pdf = pdf;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Stage getStage() {
+            return stage;
+        }
+
+        public LabResult getResult() {
+            return result;
+        }
+
+        public String getReportUrl() {
+            return reportUrl;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        /** Short status line, e.g. "Extracting text (3/12)". */
+        public String describe() {
+            if (stage == Stage.FAILED && error != null) {
+                return stage.label + ": " + error;
+            }
+            if (stage == Stage.EXTRACTING && pageCount > 0) {
+                return stage.label + " (" + pagesDone + "/" + pageCount + ")";
+            }
+            return stage.label;
+        }
+
+        private String fileType() {
+            return pdf ? "pdf" : "image";
+        }
+    }
+
+    /** Called on the main thread. Not called at all once the batch has been cancelled. */
+    public interface Listener {
+        void onItemUpdated(int index, Item item);
+
+        void onBatchComplete(List<Item> items);
+    }
+
+    // The batch started last, until it is cancelled; only touched on the main thread
+    private static BatchAnalyzer current;
+
+    private final Context appContext;
+    private final List<Item> items;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger remaining;
+    private ExecutorService executor;
+    private Listener listener;
+    private volatile boolean cancelled;
+
+    public BatchAnalyzer(Context context, List<Item> items) {
+        this.appContext = context.getApplicationContext();
+        this.items = Collections.unmodifiableList(new ArrayList<>(items));
+        this.remaining = new AtomicInteger(items.size());
+    }
+
+    /** Returns the batch started last, or {@code null} once it has been cancelled. Main thread only. */
+    @Nullable
+    public static BatchAnalyzer current() {
+        return current;
+    }
+
+    public List<Item> getItems() {
+        return items;
+    }
+
+    /**
+     * Sets the listener, or detaches it with {@code null}. A listener attached after the batch
+     * finished is told so right away. Main thread only.
+     */
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+        if (listener != null && remaining.get() == 0) {
+            post(() -> listener.onBatchComplete(items));
+        }
+    }
+
+    /** Starts the batch on the main thread. */
+    public void start() {
+        current = this;
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(MAX_CONCURRENT_FILES,
+                r -> new Thread(r, "batch-" + threadNumber.incrementAndGet()));
+        for (int i = 0; i < items.size(); i++) {
+            int index = i;
+            executor.execute(() -> process(index));
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Stops following the files still in flight and skips their webhook submissions. Their uploads
+     * are owned by the {@link UploadQueue} and still finish. No listener callbacks are delivered
+     * afterwards. Main thread only.
+     */
+    public void cancel() {
+        cancelled = true;
+        listener = null;
+        if (current == this) {
+            current = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private void process(int index) {
+        Item item = items.get(index);
+        try {
+            FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+            if (user == null) {
+                throw new IOException("User not authenticated");
+            }
+            update(index, item, Stage.STAGING);
+            ReportPipeline.Run run = await(ReportPipeline.getInstance(appContext).start(item.uri, item.fileType(),
+                    item.name, user.getUid(), (pagesDone, pageCount) -> {
+                        item.pagesDone = pagesDone;
+                        item.pageCount = pageCount;
+                        post(() -> listener.onItemUpdated(index, item));
+                    }));
+            item.contentHash = run.contentHash;
+
+            update(index, item, Stage.EXTRACTING);
+            ExtractionCache.Entry entry = await(run.extraction);
+            item.result = entry.result;
+            if (entry.result.isEmpty()) {
+                throw new IOException("No health parameters found");
+            }
+
+            // Uploaded and recorded by the queue, which reuses the URL of an earlier upload
+            update(index, item, Stage.UPLOADING);
+            item.reportUrl = await(run.upload.result);
+
+            update(index, item, Stage.SUBMITTING);
+            submit(item, user);
+
+            update(index, item, Stage.DONE);
+        } catch (InterruptedException e) {
+            // Cancelled; nothing is reported any more
+            return;
+        } catch (Exception e) {
+            if (cancelled) {
+                return;
+            }
+            Log.e(TAG, "Batch item " + item.name + " failed: " + e.getMessage(), e);
+            item.error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            update(index, item, Stage.FAILED);
+        }
+        if (remaining.decrementAndGet() == 0) {
+            post(() -> listener.onBatchComplete(items));
+        }
+    }
+
+    // Waits for a pipeline step and rethrows its own failure, so the item shows that message
+    private static <T> T await(CompletableFuture<T> step) throws Exception {
+        try {
+            return step.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    // Queues the parameters for the next batched webhook post
+    private void submit(Item item, FirebaseUser user) throws Exception {
+        String timestamp = new SimpleDateFormat("dd-MM-yyyy HH:mm:ss", Locale.getDefault()).format(new Date());
+
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<String> failure = new AtomicReference<>();
+        N8nSender.sendBatched(appContext, item.result, user.getDisplayName(), user.getEmail(),
+                item.reportUrl, timestamp, new N8nSender.Callback() {
+                    @Override
+                    public void onSuccess(JSONObject response) {
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onFailure(String message) {
+                        failure.set(message);
+                        done.countDown();
+                    }
+                });
+        done.await();
+        if (failure.get() != null) {
+            throw new IOException(failure.get());
+        }
+    }
+
+    private void update(int index, Item item, Stage stage) {
+        item.stage = stage;
+        post(() -> listener.onItemUpdated(index, item));
+    }
+
+    // Dropped while no screen is attached; a screen that attaches later reads the items itself
+    private void post(Runnable runnable) {
+        mainHandler.post(() -> {
+            if (!cancelled && listener != null) {
+                runnable.run();
+            }
+        });
+    }
+}
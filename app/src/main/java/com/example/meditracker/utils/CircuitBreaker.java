@@ -0,0 +1,217 @@
+package com.example.meditracker.utils;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Circuit breaker for one webhook endpoint. It keeps the outcome and latency of the last
+ * {@link #WINDOW_SIZE} calls. When too many of them failed or overran the latency budget, it opens
+ * and rejects calls at once instead of letting each one wait for its timeout. After a cool-down
+ * it lets a single probe through (half-open): a good probe closes it again, a bad one reopens it.
+ */
+public class CircuitBreaker {
+    private static final String TAG = "CircuitBreaker";
+
+    private static final int WINDOW_SIZE = 20;
+    private static final float FAILURE_RATE_THRESHOLD = 0.5f;
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /** Called on the thread that changed the state. */
+    public interface Listener {
+        void onStateChanged(CircuitBreaker breaker, State state);
+    }
+
+    /** Rolling health of the endpoint, as of when it was taken. */
+    public static class Snapshot {
+        public final State state;
+        public final int calls;
+        /** Share of recent calls that failed or overran the latency budget. */
+        public final float failureRate;
+        public final long p50LatencyMs;
+        public final long p95LatencyMs;
+        /** Until the next probe is let through; 0 unless open. */
+        public final long retryInMs;
+
+        Snapshot(State state, int calls, float failureRate, long p50LatencyMs, long p95LatencyMs, long retryInMs) {
+            this.state = state;
+            this.calls = calls;
+            this.failureRate = failureRate;
+            this.p50LatencyMs = p50LatencyMs;
+            this.p95LatencyMs = p95LatencyMs;
+            this.retryInMs = retryInMs;
+        }
+    }
+
+    private final String name;
+    private final int minCalls;
+    private final long latencyBudgetMs;
+    private final long openMs;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Ring buffer of the most recent calls
+    private final long[] latencies = new long[WINDOW_SIZE];
+    private final boolean[] failures = new boolean[WINDOW_SIZE];
+    private int next;
+    private int count;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    /**
+     * @param minCalls        calls needed in the window before the failure rate is trusted
+     * @param latencyBudgetMs calls slower than this count against the endpoint even if they succeed
+     * @param openMs          how long to reject calls before probing
+     */
+    public CircuitBreaker(String name, int minCalls, long latencyBudgetMs, long openMs) {
+        this.name = name;
+        this.minCalls = minCalls;
+        this.latencyBudgetMs = latencyBudgetMs;
+        this.openMs = openMs;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Asks to make a call. Returns false while open. Once the cool-down has passed, the first
+     * caller becomes the half-open probe and everyone else is rejected until it reports back.
+     * Every permitted call must end in {@link #recordSuccess}, {@link #recordFailure} or
+     * {@link #release}.
+     */
+    public boolean tryAcquire() {
+        State changed;
+        synchronized (this) {
+            switch (state) {
+                case CLOSED:
+                    return true;
+                case HALF_OPEN:
+                    if (probeInFlight) {
+                        return false;
+                    }
+                    probeInFlight = true;
+                    return true;
+                default:
+                    if (System.currentTimeMillis() - openedAt < openMs) {
+                        return false;
+                    }
+                    state = State.HALF_OPEN;
+                    probeInFlight = true;
+                    changed = state;
+            }
+        }
+        notifyState(changed);
+        return true;
+    }
+
+    /** The endpoint answered. Too slow an answer still counts against it. */
+    public void recordSuccess(long latencyMs) {
+        record(latencyMs > latencyBudgetMs, latencyMs);
+    }
+
+    /** The endpoint failed, timed out or was unreachable. */
+    public void recordFailure(long latencyMs) {
+        record(true, latencyMs);
+    }
+
+    /** A permitted call ended without telling anything about the endpoint, e.g. it was cancelled. */
+    public synchronized void release() {
+        probeInFlight = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized Snapshot snapshot() {
+        int failed = 0;
+        long[] sorted = Arrays.copyOf(latencies, count);
+        for (int i = 0; i < count; i++) {
+            if (failures[i]) {
+                failed++;
+            }
+        }
+        Arrays.sort(sorted);
+        long retryIn = state == State.OPEN
+                ? Math.max(0, openMs - (System.currentTimeMillis() - openedAt)) : 0;
+        return new Snapshot(state, count, count > 0 ? (float) failed / count : 0f,
+                percentile(sorted, 50), percentile(sorted, 95), retryIn);
+    }
+
+    private void record(boolean failed, long latencyMs) {
+        State changed = null;
+        synchronized (this) {
+            latencies[next] = latencyMs;
+            failures[next] = failed;
+            next = (next + 1) % WINDOW_SIZE;
+            count = Math.min(count + 1, WINDOW_SIZE);
+
+            if (state == State.HALF_OPEN) {
+                probeInFlight = false;
+                if (failed) {
+                    changed = open();
+                } else {
+                    // Start afresh so the failures that opened the breaker do not reopen it
+                    count = 0;
+                    next = 0;
+                    state = State.CLOSED;
+                    changed = state;
+                }
+            } else if (state == State.CLOSED && count >= minCalls && unhealthy()) {
+                changed = open();
+            }
+        }
+        if (changed != null) {
+            notifyState(changed);
+        }
+    }
+
+    private State open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        return state;
+    }
+
+    private boolean unhealthy() {
+        int failed = 0;
+        for (int i = 0; i < count; i++) {
+            if (failures[i]) {
+                failed++;
+            }
+        }
+        return failed >= count * FAILURE_RATE_THRESHOLD;
+    }
+
+    private void notifyState(State state) {
+        Log.w(TAG, name + " is now " + state);
+        for (Listener listener : listeners) {
+            listener.onStateChanged(this, state);
+        }
+    }
+
+    // Nearest-rank percentile of an ascending array; 0 when there is no data
+    static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.meditracker.utils;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import com.example.meditracker.ParcelFileDescriptorUtil;
+
+import java.io.File;
+import java.io.IOException;
+
+import okhttp3.HttpUrl;
+
+/** Shared Cloudinary client for report uploads. Uploads block, so call them off the main thread. */
+public class CloudinaryUploader {
+    private static final String CLOUD_NAME = "dfjuuur7l";
+    private static final String API_KEY = "155684526852715";
+    private static final String API_SECRET = "ZsoPKadYWegNGiAlXc2nmuVeUkU";
+    private static final String UPLOAD_ENDPOINT = "api.cloudinary.com/v1_1/" + CLOUD_NAME + "/";
+    private static final String UPLOAD_STATE_DIR = "uploads";
+
+    private static CloudinaryUploader instance;
+
+    private ResumableUploader resumableUploader;
+
+    public static synchronized CloudinaryUploader getInstance() {
+        if (instance == null) {
+            instance = new CloudinaryUploader();
+        }
+        return instance;
+    }
+
+    private CloudinaryUploader() {
+    }
+
+    /**
+     * Uploads a staged report in parts and returns its secure URL. If an earlier upload of the
+     * same content was interrupted, even in an earlier run of the app, only the parts the server
+     * has not acknowledged yet are sent.
+     */
+    public String uploadResumable(Context context, File staged, String fileType,
+                                  @Nullable ResumableUploader.ProgressListener listener) throws IOException {
+        String key = ParcelFileDescriptorUtil.contentHash(staged);
+        if (key == null) {
+            key = ContentHash.of(staged);
+        }
+        return resumableUploader(context).upload(staged, key, resourceType(fileType), listener);
+    }
+
+    private synchronized ResumableUploader resumableUploader(Context context) {
+        if (resumableUploader == null) {
+            // Kept in files, not cache, so the resume points survive cache trimming
+            resumableUploader = new ResumableUploader(
+                    new File(context.getApplicationContext().getFilesDir(), UPLOAD_STATE_DIR),
+                    SharedHttpClient.get(), HttpUrl.get("https://" + UPLOAD_ENDPOINT), API_KEY, API_SECRET);
+        }
+        return resumableUploader;
+    }
+
+    private static String resourceType(String fileType) {
+        return "pdf".equals(fileType) ? "raw" : "image";
+    }
+}
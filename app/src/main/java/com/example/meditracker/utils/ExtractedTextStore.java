@@ -0,0 +1,72 @@
+package com.example.meditracker.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Spills extracted report text to the cache directory page by page, so the raw text never has to
+ * travel between activities as an Intent extra. Only the file path is passed around.
+ */
+public class ExtractedTextStore {
+    private static final String TAG = "ExtractedTextStore";
+    private static final String DIR_NAME = "extracted_text";
+    private static final int MAX_FILES = 10;
+
+    /** Creates a new spill file, removing the oldest ones beyond {@link #MAX_FILES}. */
+    public static Spill create(Context context) throws IOException {
+        File dir = new File(context.getCacheDir(), DIR_NAME);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        trim(dir);
+        return new Spill(File.createTempFile("report_", ".txt", dir));
+    }
+
+    private static void trim(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null || files.length < MAX_FILES) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i <= files.length - MAX_FILES; i++) {
+            if (!files[i].delete()) {
+                Log.w(TAG, "Could not delete " + files[i]);
+            }
+        }
+    }
+
+    public static class Spill implements Closeable {
+        private final File file;
+        private final Writer writer;
+
+        private Spill(File file) throws IOException {
+            this.file = file;
+            this.writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(file), StandardCharsets.UTF_8));
+        }
+
+        public void appendPage(CharSequence pageText) throws IOException {
+            writer.append(pageText).append('\n');
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.meditracker.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Disk-backed cache of extraction results, keyed by the SHA-256 of the report bytes. Each entry
+ * is the compact binary form of the {@link LabResult} plus the raw text file, so re-opening a
+ * report skips PDF parsing or OCR entirely. Least recently used entries are evicted once the
+ * cache grows past {@link #MAX_BYTES}.
+ */
+public class ExtractionCache {
+    private static final String TAG = "ExtractionCache";
+    private static final String DIR_NAME = "extractions";
+    private static final long MAX_BYTES = 20L * 1024 * 1024;
+    // Bump when extraction logic changes so stale results are not served
+    private static final int FORMAT_VERSION = 3;
+
+    private static ExtractionCache instance;
+
+    private final File dir;
+
+    public static class Entry {
+        public final String contentHash;
+        public final LabResult result;
+        public final File textFile;
+
+        public Entry(String contentHash, LabResult result, File textFile) {
+            this.contentHash = contentHash;
+            this.result = result;
+            this.textFile = textFile;
+        }
+    }
+
+    public static synchronized ExtractionCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new ExtractionCache(new File(context.getApplicationContext().getCacheDir(), DIR_NAME));
+        }
+        return instance;
+    }
+
+    private ExtractionCache(File dir) {
+        this.dir = dir;
+    }
+
+    /** Returns the cached result for {@code contentHash}, or {@code null}. Call off the main thread. */
+    public synchronized Entry get(String contentHash) {
+        if (contentHash == null) {
+            return null;
+        }
+        File meta = metaFile(contentHash);
+        File text = textFile(contentHash);
+        if (!meta.isFile() || !text.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(meta)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            LabResult result = LabResult.readFrom(in);
+
+            long now = System.currentTimeMillis();
+            meta.setLastModified(now);
+            text.setLastModified(now);
+            Log.d(TAG, "Cache hit for " + contentHash);
+            return new Entry(contentHash, result, text);
+        } catch (IOException e) {
+            Log.w(TAG, "Dropping unreadable cache entry " + contentHash + ": " + e.getMessage());
+            meta.delete();
+            text.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Stores a result. {@code extractedText} is moved into the cache; use the returned entry's
+     * text file afterwards. Call off the main thread.
+     */
+    public synchronized Entry put(String contentHash, LabResult result, File extractedText) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        File text = textFile(contentHash);
+        if (!extractedText.renameTo(text)) {
+            copy(extractedText, text);
+            extractedText.delete();
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(metaFile(contentHash))))) {
+            out.writeInt(FORMAT_VERSION);
+            result.writeTo(out);
+        }
+
+        evict(contentHash);
+        return new Entry(contentHash, result, text);
+    }
+
+    private File metaFile(String contentHash) {
+        return new File(dir, contentHash + ".bin");
+    }
+
+    private File textFile(String contentHash) {
+        return new File(dir, contentHash + ".txt");
+    }
+
+    // Deletes least recently used entries (meta + text together) until the cache fits its cap
+    private void evict(String keepHash) {
+        File[] metas = dir.listFiles((d, name) -> name.endsWith(".bin"));
+        if (metas == null) {
+            return;
+        }
+        long total = 0;
+        for (File meta : metas) {
+            total += meta.length() + textFile(hashOf(meta)).length();
+        }
+        if (total <= MAX_BYTES) {
+            return;
+        }
+        Arrays.sort(metas, Comparator.comparingLong(File::lastModified));
+        for (File meta : metas) {
+            if (total <= MAX_BYTES) {
+                break;
+            }
+            String hash = hashOf(meta);
+            if (hash.equals(keepHash)) {
+                continue;
+            }
+            File text = textFile(hash);
+            total -= meta.length() + text.length();
+            meta.delete();
+            text.delete();
+            Log.d(TAG, "Evicted cache entry " + hash);
+        }
+    }
+
+    private static String hashOf(File meta) {
+        String name = meta.getName();
+        return name.substring(0, name.length() - ".bin".length());
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        try (InputStream in = new FileInputStream(from); OutputStream out = new FileOutputStream(to)) {
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                out.write(buffer, 0, len);
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.meditracker.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * Request body that streams JSON through gzip straight into the connection. The payload is
+ * generated while the request is written, so no String or byte array of the whole body is
+ * ever built. Send it with a {@code Content-Encoding: gzip} header.
+ */
+public class GzipJsonBody extends RequestBody {
+    public static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+    public static final String CONTENT_ENCODING = "Content-Encoding";
+    public static final String GZIP = "gzip";
+
+    /** Writes one JSON document. May be called more than once if a request is retried. */
+    public interface Source {
+        void writeTo(Writer out) throws IOException;
+    }
+
+    private final Source source;
+
+    public GzipJsonBody(Source source) {
+        this.source = source;
+    }
+
+    /** A body for a payload already compressed to a file by {@link #write}. */
+    public static RequestBody fromFile(File gzipFile) {
+        return RequestBody.create(gzipFile, JSON);
+    }
+
+    /**
+     * Streams {@code source} as gzip-compressed UTF-8 into {@code sink} and closes it, also when
+     * the source fails part way.
+     */
+    public static void write(Source source, BufferedSink sink) throws IOException {
+        try (BufferedSink gzip = Okio.buffer(new GzipSink(sink))) {
+            Writer writer = new OutputStreamWriter(gzip.outputStream(), StandardCharsets.UTF_8);
+            source.writeTo(writer);
+            writer.flush();
+        }
+    }
+
+    @Override
+    public MediaType contentType() {
+        return JSON;
+    }
+
+    // Unknown up front; the body goes out chunked
+    @Override
+    public long contentLength() {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        write(source, sink);
+    }
+}
@@ -0,0 +1,287 @@
+package com.example.meditracker.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.media.ExifInterface;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.meditracker.ParcelFileDescriptorUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Shrinks photographed reports before upload. The capture is decoded with power-of-two
+ * subsampling, scaled so its long edge is at most {@link OcrEngine#TARGET_MAX_DIMENSION} (the size
+ * the OCR already reads reports at), turned upright, and re-encoded as JPEG at the highest quality
+ * that fits the byte budget. Decode and scale buffers are reused between captures that come in
+ * quick succession and released once no photo has been compressed for a while.
+ * Compression blocks, so call it off the main thread.
+ */
+public class ImageCompressor {
+    private static final String TAG = "ImageCompressor";
+    private static final String DIR_NAME = "compressed_reports";
+    private static final String SUFFIX = ".jpg";
+    private static final int MAX_CACHED_FILES = 20;
+
+    // Below about 1 MB a 2048 px report page stays crisp; lower qualities blur small print
+    private static final int MAX_BYTES = 1024 * 1024;
+    private static final int START_QUALITY = 85;
+    private static final int MIN_QUALITY = 60;
+    private static final int QUALITY_STEP = 10;
+    // The buffers can be tens of MB, so they are only kept while photos keep coming
+    private static final long IDLE_RELEASE_MS = 30_000;
+
+    private static ImageCompressor instance;
+
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final ByteArrayOutputStream encoded = new ByteArrayOutputStream(MAX_BYTES);
+    private Bitmap decodeBuffer;
+    private Bitmap scaleBuffer;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable releaseBuffers = this::releaseBuffers;
+
+    /** What one compression did. */
+    public static class Result {
+        /** The file to upload: the compressed copy, or the original when compressing did not help. */
+        public final File file;
+        public final long originalBytes;
+        public final long compressedBytes;
+        public final int width;
+        public final int height;
+        public final int quality;
+        public final long elapsedMs;
+
+        Result(File file, long originalBytes, long compressedBytes, int width, int height, int quality, long elapsedMs) {
+            this.file = file;
+            this.originalBytes = originalBytes;
+            this.compressedBytes = compressedBytes;
+            this.width = width;
+            this.height = height;
+            this.quality = quality;
+            this.elapsedMs = elapsedMs;
+        }
+
+        /** Share of the original size saved, from 0 to 1. */
+        public float savedFraction() {
+            return originalBytes > 0 ? 1f - (float) compressedBytes / originalBytes : 0f;
+        }
+
+        /** E.g. "8.4 MB -> 0.9 MB (89% smaller)". */
+        public String describe() {
+            return String.format(Locale.US, "%.1f MB -> %.1f MB (%d%% smaller)",
+                    originalBytes / 1048576f, compressedBytes / 1048576f, Math.round(savedFraction() * 100));
+        }
+    }
+
+    public static synchronized ImageCompressor getInstance() {
+        if (instance == null) {
+            instance = new ImageCompressor();
+        }
+        return instance;
+    }
+
+    private ImageCompressor() {
+    }
+
+    /**
+     * Compresses a staged capture into the cache, named after the capture's content so a retried
+     * upload sends the same bytes again.
+     */
+    public Result compressForUpload(Context context, File staged) throws IOException {
+        File dir = new File(context.getCacheDir(), DIR_NAME);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        String hash = ParcelFileDescriptorUtil.contentHash(staged);
+        Result result = compress(staged, new File(dir, (hash != null ? hash : ContentHash.of(staged)) + SUFFIX));
+        evict(dir, result.file);
+        return result;
+    }
+
+    /**
+     * Compresses {@code source} into {@code target}. A {@code target} left by an earlier run is
+     * reused as is, so name it after the source's content.
+     */
+    public synchronized Result compress(File source, File target) throws IOException {
+        mainHandler.removeCallbacks(releaseBuffers);
+        mainHandler.postDelayed(releaseBuffers, IDLE_RELEASE_MS);
+        long start = SystemClock.elapsedRealtime();
+        long originalBytes = source.length();
+        if (target.isFile() && target.length() > 0) {
+            Log.d(TAG, "Reusing compressed copy " + target.getName());
+            target.setLastModified(System.currentTimeMillis());
+            return new Result(target, originalBytes, target.length(), 0, 0, 0, 0);
+        }
+
+        Bitmap upright = decodeUpright(source);
+        int quality = START_QUALITY;
+        while (true) {
+            encoded.reset();
+            if (!upright.compress(Bitmap.CompressFormat.JPEG, quality, encoded)) {
+                throw new IOException("Could not encode " + source.getName());
+            }
+            if (encoded.size() <= MAX_BYTES || quality - QUALITY_STEP < MIN_QUALITY) {
+                break;
+            }
+            quality -= QUALITY_STEP;
+        }
+        int width = upright.getWidth();
+        int height = upright.getHeight();
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        if (encoded.size() >= originalBytes) {
+            // Already small, e.g. a screenshot; re-encoding would only cost quality
+            Log.d(TAG, source.getName() + " is already compact, uploading it unchanged");
+            return new Result(source, originalBytes, originalBytes, width, height, 0, elapsed);
+        }
+        File temp = new File(target.getParentFile(), target.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            encoded.writeTo(out);
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Could not write " + target);
+        }
+        Result result = new Result(target, originalBytes, encoded.size(), width, height, quality, elapsed);
+        Log.d(TAG, "Compressed " + source.getName() + " to " + width + "x" + height + " at quality "
+                + quality + ": " + result.describe() + " in " + elapsed + " ms");
+        return result;
+    }
+
+    // Decodes close to the target size into the pooled decode buffer, then scales and rotates in
+    // one draw into the pooled scale buffer, so the upload reads upright without EXIF
+    private Bitmap decodeUpright(File source) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(source.getAbsolutePath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Not a decodable image: " + source.getName());
+        }
+        int longEdge = Math.max(options.outWidth, options.outHeight);
+        int sampleSize = 1;
+        while (longEdge / (sampleSize * 2) >= OcrEngine.TARGET_MAX_DIMENSION) {
+            sampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        if (OcrEngine.canDecodeInto(decodeBuffer, options)) {
+            options.inBitmap = decodeBuffer;
+        }
+        Bitmap decoded = OcrEngine.decodeFile(source, options);
+        if (decoded == null) {
+            throw new IOException("Failed to decode " + source.getName());
+        }
+        if (decodeBuffer != null && decodeBuffer != decoded) {
+            decodeBuffer.recycle();
+        }
+        decodeBuffer = decoded;
+
+        int rotation = readRotation(source);
+        float scale = Math.min(1f, (float) OcrEngine.TARGET_MAX_DIMENSION
+                / Math.max(decoded.getWidth(), decoded.getHeight()));
+        if (scale == 1f && rotation == 0) {
+            return decoded;
+        }
+        int scaledWidth = Math.round(decoded.getWidth() * scale);
+        int scaledHeight = Math.round(decoded.getHeight() * scale);
+        boolean sideways = rotation == 90 || rotation == 270;
+        int width = sideways ? scaledHeight : scaledWidth;
+        int height = sideways ? scaledWidth : scaledHeight;
+
+        Bitmap target = scaleBuffer(width, height);
+        Matrix matrix = new Matrix();
+        matrix.postScale(scale, scale);
+        matrix.postRotate(rotation);
+        // Rotating about the origin moves the image out of view; shift it back in
+        switch (rotation) {
+            case 90:
+                matrix.postTranslate(width, 0);
+                break;
+            case 180:
+                matrix.postTranslate(width, height);
+                break;
+            case 270:
+                matrix.postTranslate(0, height);
+                break;
+            default:
+                break;
+        }
+        new Canvas(target).drawBitmap(decoded, matrix, paint);
+        return target;
+    }
+
+    // Reconfigures the pooled bitmap in place when its allocation is big enough
+    private Bitmap scaleBuffer(int width, int height) {
+        long needed = (long) width * height * 4;
+        if (scaleBuffer != null && scaleBuffer.getAllocationByteCount() >= needed) {
+            scaleBuffer.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+        } else {
+            if (scaleBuffer != null) {
+                scaleBuffer.recycle();
+            }
+            scaleBuffer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        return scaleBuffer;
+    }
+
+    private synchronized void releaseBuffers() {
+        if (decodeBuffer != null) {
+            decodeBuffer.recycle();
+            decodeBuffer = null;
+        }
+        if (scaleBuffer != null) {
+            scaleBuffer.recycle();
+            scaleBuffer = null;
+        }
+        Log.d(TAG, "Released buffers after idling");
+    }
+
+    // Keeps the newest few compressed copies; older ones are only needed for retries
+    private static void evict(File dir, File keep) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null || files.length <= MAX_CACHED_FILES) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length - MAX_CACHED_FILES; i++) {
+            if (!files[i].equals(keep)) {
+                files[i].delete();
+            }
+        }
+    }
+
+    private static int readRotation(File source) {
+        try {
+            int orientation = new ExifInterface(source.getAbsolutePath()).getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            switch (orientation) {
+                case ExifInterface.ORIENTATION_ROTATE_90:
+                    return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180:
+                    return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270:
+                    return 270;
+                default:
+                    return 0;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read EXIF orientation: " + e.getMessage());
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.example.meditracker.utils;
+
+import com.example.meditracker.utils.LabResult.Parameter;
+import com.example.meditracker.utils.LabResult.Sex;
+import com.example.meditracker.utils.LabResult.Unit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * On-device first read of a report. Every lab value is compared with bundled adult and child
+ * reference ranges, chosen by age and sex when the report states them, and an adult's blood
+ * pressure is staged by the usual adult categories. This takes well under a millisecond, so a structured
+ * summary is on screen long before the AI summary arrives. It is a screening aid, not a
+ * diagnosis: ranges vary between laboratories.
+ */
+public final class InstantSummary {
+    // Glucose and cholesterol reported in mmol/L are compared in mg/dL
+    private static final float GLUCOSE_MG_PER_MMOL = 18.016f;
+    private static final float CHOLESTEROL_MG_PER_MMOL = 38.67f;
+    private static final int ADULT_AGE = 18;
+    private static final int CHILD_AGE = 12;
+
+    public enum Status {
+        LOW("low"),
+        NORMAL("normal"),
+        BORDERLINE("borderline high"),
+        ELEVATED("elevated"),
+        HIGH("high");
+
+        public final String label;
+
+        Status(String label) {
+            this.label = label;
+        }
+    }
+
+    /** One evaluated value, e.g. "Hemoglobin low". */
+    public static class Finding {
+        public final Parameter parameter;
+        public final Status status;
+        /** Value and reference as printed, e.g. "10.2 g/dL (ref 12-15.5)". */
+        public final String detail;
+
+        Finding(Parameter parameter, Status status, String detail) {
+            this.parameter = parameter;
+            this.status = status;
+            this.detail = detail;
+        }
+
+        public String headline() {
+            String name = parameter == Parameter.BP_SYSTOLIC ? "BP" : parameter.label;
+            return name + " " + status.label;
+        }
+    }
+
+    // One row of the bundled table. Values from low to high are normal, except that ranges with
+    // a borderline band count values above borderlineAbove (but not above high) as borderline.
+    // Ranges without a band use Float.NaN.
+    private static final class Range {
+        final Parameter parameter;
+        final Sex sex;
+        final int minAge;
+        final int maxAge;
+        final float low;
+        final float borderlineAbove;
+        final float high;
+
+        Range(Parameter parameter, Sex sex, int minAge, int maxAge, float low, float borderlineAbove, float high) {
+            this.parameter = parameter;
+            this.sex = sex;
+            this.minAge = minAge;
+            this.maxAge = maxAge;
+            this.low = low;
+            this.borderlineAbove = borderlineAbove;
+            this.high = high;
+        }
+
+        boolean matches(Parameter parameter, Sex sex, int age) {
+            return this.parameter == parameter
+                    && (this.sex == Sex.UNKNOWN || this.sex == sex)
+                    && age >= minAge && age <= maxAge;
+        }
+    }
+
+    private static final int ANY_AGE_MAX = 200;
+    private static final float NONE = Float.NaN;
+
+    // Most specific rows first; the first match wins. Values are in each parameter's default unit.
+    private static final Range[] RANGES = {
+            new Range(Parameter.HEMOGLOBIN, Sex.UNKNOWN, 0, CHILD_AGE - 1, 11.5f, NONE, 15.5f),
+            new Range(Parameter.HEMOGLOBIN, Sex.UNKNOWN, CHILD_AGE, ADULT_AGE - 1, 12.0f, NONE, 16.0f),
+            new Range(Parameter.HEMOGLOBIN, Sex.MALE, ADULT_AGE, ANY_AGE_MAX, 13.5f, NONE, 17.5f),
+            new Range(Parameter.HEMOGLOBIN, Sex.FEMALE, ADULT_AGE, ANY_AGE_MAX, 12.0f, NONE, 15.5f),
+            new Range(Parameter.HEMOGLOBIN, Sex.UNKNOWN, ADULT_AGE, ANY_AGE_MAX, 12.0f, NONE, 17.5f),
+
+            new Range(Parameter.RBC, Sex.UNKNOWN, 0, ADULT_AGE - 1, 4.0f, NONE, 5.5f),
+            new Range(Parameter.RBC, Sex.MALE, ADULT_AGE, ANY_AGE_MAX, 4.7f, NONE, 6.1f),
+            new Range(Parameter.RBC, Sex.FEMALE, ADULT_AGE, ANY_AGE_MAX, 4.2f, NONE, 5.4f),
+            new Range(Parameter.RBC, Sex.UNKNOWN, ADULT_AGE, ANY_AGE_MAX, 4.2f, NONE, 6.1f),
+
+            new Range(Parameter.WBC, Sex.UNKNOWN, 0, CHILD_AGE - 1, 4.5f, NONE, 13.5f),
+            new Range(Parameter.WBC, Sex.UNKNOWN, CHILD_AGE, ANY_AGE_MAX, 4.5f, NONE, 11.0f),
+
+            new Range(Parameter.PLATELETS, Sex.UNKNOWN, 0, ANY_AGE_MAX, 150f, NONE, 450f),
+
+            // Assumes a fasting sample; 100-125 mg/dL is the prediabetes band
+            new Range(Parameter.SUGAR, Sex.UNKNOWN, 0, ANY_AGE_MAX, 70f, 99f, 125f),
+
+            new Range(Parameter.CHOLESTEROL, Sex.UNKNOWN, 0, ADULT_AGE - 1, 0f, 169f, 199f),
+            new Range(Parameter.CHOLESTEROL, Sex.UNKNOWN, ADULT_AGE, ANY_AGE_MAX, 0f, 199f, 239f),
+    };
+
+    private InstantSummary() {
+    }
+
+    /**
+     * Evaluates every present value and marks out-of-range ones with {@link LabResult#FLAG_LOW}
+     * or {@link LabResult#FLAG_HIGH}. Values in a unit the table cannot compare are skipped.
+     */
+    public static List<Finding> evaluate(LabResult result) {
+        List<Finding> findings = new ArrayList<>();
+        // Without a stated age, adult ranges apply
+        int age = result.has(Parameter.AGE) ? Math.round(result.value(Parameter.AGE)) : ADULT_AGE;
+        Sex sex = result.getSex();
+
+        // Children's blood pressure is judged against height percentiles the report does not carry
+        Finding bp = age >= ADULT_AGE ? evaluateBloodPressure(result) : null;
+        if (bp != null) {
+            findings.add(bp);
+        }
+        for (Parameter parameter : Parameter.values()) {
+            if (!result.has(parameter) || Float.isNaN(result.value(parameter))) {
+                continue;
+            }
+            float value = toDefaultUnit(parameter, result.value(parameter), result.unit(parameter));
+            if (Float.isNaN(value)) {
+                continue;
+            }
+            Range range = find(parameter, sex, age);
+            if (range == null) {
+                continue;
+            }
+            Status status;
+            if (value < range.low) {
+                status = Status.LOW;
+                result.addFlags(parameter, LabResult.FLAG_LOW);
+            } else if (value > range.high) {
+                status = Status.HIGH;
+                result.addFlags(parameter, LabResult.FLAG_HIGH);
+            } else if (!Float.isNaN(range.borderlineAbove) && value > range.borderlineAbove) {
+                status = Status.BORDERLINE;
+            } else {
+                status = Status.NORMAL;
+            }
+            StringBuilder detail = new StringBuilder();
+            appendNumber(detail, value).append(' ').append(parameter.defaultUnit.symbol).append(" (ref ");
+            if (range.low > 0) {
+                appendNumber(detail, range.low).append('-');
+            } else {
+                detail.append("up to ");
+            }
+            appendNumber(detail, range.borderlineAbove >= 0 ? range.borderlineAbove : range.high).append(')');
+            findings.add(new Finding(parameter, status, detail.toString()));
+        }
+        return findings;
+    }
+
+    /**
+     * Plain-text rendering: out-of-range values first, one per line, then a short note on the
+     * rest. Empty when nothing could be evaluated.
+     */
+    public static String format(List<Finding> findings) {
+        StringBuilder flagged = new StringBuilder();
+        List<String> normal = new ArrayList<>();
+        for (Finding finding : findings) {
+            if (finding.status == Status.NORMAL) {
+                normal.add(finding.parameter == Parameter.BP_SYSTOLIC ? "BP" : finding.parameter.label);
+            } else {
+                if (flagged.length() > 0) {
+                    flagged.append('\n');
+                }
+                flagged.append("- ").append(finding.headline()).append(": ").append(finding.detail);
+            }
+        }
+        StringBuilder sb = new StringBuilder(flagged);
+        if (!normal.isEmpty()) {
+            if (sb.length() > 0) {
+                sb.append("\n\n");
+            }
+            sb.append("Within range: ").append(String.join(", ", normal)).append('.');
+        }
+        return sb.toString();
+    }
+
+    // Adult categories: low below 90/60, normal below 120/80, elevated 120-129 with a normal
+    // diastolic, high (stage 1 or 2) from 130 or 80
+    private static Finding evaluateBloodPressure(LabResult result) {
+        if (!result.has(Parameter.BP_SYSTOLIC) || !result.has(Parameter.BP_DIASTOLIC)) {
+            return null;
+        }
+        float systolic = result.value(Parameter.BP_SYSTOLIC);
+        float diastolic = result.value(Parameter.BP_DIASTOLIC);
+        if (Float.isNaN(systolic) || Float.isNaN(diastolic)) {
+            return null;
+        }
+        Status status;
+        String stage = "";
+        if (systolic >= 140 || diastolic >= 90) {
+            status = Status.HIGH;
+            stage = ", stage 2";
+        } else if (systolic >= 130 || diastolic >= 80) {
+            status = Status.HIGH;
+            stage = ", stage 1";
+        } else if (systolic >= 120) {
+            status = Status.ELEVATED;
+        } else if (systolic < 90 || diastolic < 60) {
+            status = Status.LOW;
+        } else {
+            status = Status.NORMAL;
+        }
+        if (status == Status.HIGH) {
+            result.addFlags(Parameter.BP_SYSTOLIC, LabResult.FLAG_HIGH);
+            result.addFlags(Parameter.BP_DIASTOLIC, LabResult.FLAG_HIGH);
+        } else if (status == Status.LOW) {
+            result.addFlags(Parameter.BP_SYSTOLIC, LabResult.FLAG_LOW);
+            result.addFlags(Parameter.BP_DIASTOLIC, LabResult.FLAG_LOW);
+        }
+        StringBuilder detail = new StringBuilder();
+        appendNumber(detail, systolic).append('/');
+        appendNumber(detail, diastolic).append(" mmHg (ref below 120/80").append(stage).append(')');
+        return new Finding(Parameter.BP_SYSTOLIC, status, detail.toString());
+    }
+
+    private static Range find(Parameter parameter, Sex sex, int age) {
+        for (Range range : RANGES) {
+            if (range.matches(parameter, sex, age)) {
+                return range;
+            }
+        }
+        return null;
+    }
+
+    // NaN when the unit cannot be converted
+    private static float toDefaultUnit(Parameter parameter, float value, Unit unit) {
+        if (unit == parameter.defaultUnit) {
+            return value;
+        }
+        if (unit == Unit.PER_UL && parameter.defaultUnit == Unit.THOUSAND_PER_UL) {
+            return value / 1000;
+        }
+        if (unit == Unit.MMOL_PER_L && parameter == Parameter.SUGAR) {
+            return value * GLUCOSE_MG_PER_MMOL;
+        }
+        if (unit == Unit.MMOL_PER_L && parameter == Parameter.CHOLESTEROL) {
+            return value * CHOLESTEROL_MG_PER_MMOL;
+        }
+        return Float.NaN;
+    }
+
+    // At most one decimal, without a trailing ".0"
+    private static StringBuilder appendNumber(StringBuilder sb, float value) {
+        long tenths = Math.round(value * 10.0);
+        sb.append(tenths / 10);
+        if (tenths % 10 != 0) {
+            sb.append('.').append(Math.abs(tenths % 10));
+        }
+        return sb;
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.meditracker.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/** Writes JSON string literals straight to a {@link Writer}, escaping as it goes. */
+public final class JsonText {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private JsonText() {
+    }
+
+    public static void writeQuoted(Writer out, CharSequence value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            writeEscaped(out, value.charAt(i));
+        }
+        out.write('"');
+    }
+
+    /** Streams {@code in} as one JSON string, so long text never has to be held in memory. */
+    public static void writeQuoted(Writer out, Reader in) throws IOException {
+        out.write('"');
+        char[] buffer = new char[4096];
+        int len;
+        while ((len = in.read(buffer)) > 0) {
+            for (int i = 0; i < len; i++) {
+                writeEscaped(out, buffer[i]);
+            }
+        }
+        out.write('"');
+    }
+
+    private static void writeEscaped(Writer out, char c) throws IOException {
+        switch (c) {
+            case '"':
+                out.write("\\\"");
+                break;
+            case '\\':
+                out.write("\\\\");
+                break;
+            case '\n':
+                out.write("\\n");
+                break;
+            case '\r':
+                out.write("\\r");
+                break;
+            case '\t':
+                out.write("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    out.write("\\u00");
+                    out.write(HEX[c >> 4]);
+                    out.write(HEX[c & 0xF]);
+                } else {
+                    out.write(c);
+                }
+        }
+    }
+}
@@ -0,0 +1,450 @@
+package com.example.meditracker.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Typed result of analysing one report. Every lab parameter is a primitive float with a unit and a
+ * flag bitset, indexed by {@link Parameter#ordinal()}, so a result is a handful of small arrays
+ * instead of a map of strings. Serializers write straight from these arrays to JSON and to the
+ * summary table.
+ */
+public final class LabResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Set once a value has been read for the parameter. */
+    public static final int FLAG_PRESENT = 1;
+    /** The report printed no unit; {@link Parameter#defaultUnit} was assumed. */
+    public static final int FLAG_UNIT_INFERRED = 1 << 1;
+    /** Below the reference range. */
+    public static final int FLAG_LOW = 1 << 2;
+    /** Above the reference range. */
+    public static final int FLAG_HIGH = 1 << 3;
+
+    public enum Unit {
+        NONE(""),
+        YEARS("years"),
+        MILLION_PER_UL("million/uL"),
+        THOUSAND_PER_UL("thousand/uL"),
+        PER_UL("/uL"),
+        G_PER_DL("g/dL"),
+        MG_PER_DL("mg/dL"),
+        MMOL_PER_L("mmol/L"),
+        MMHG("mmHg");
+
+        public final String symbol;
+
+        Unit(String symbol) {
+            this.symbol = symbol;
+        }
+
+        /**
+         * Returns the unit printed at {@code pos} (after optional spaces), or {@code null}. Compares
+         * in place, without copying the text.
+         */
+        public static Unit match(CharSequence text, int pos, int end) {
+            while (pos < end && (text.charAt(pos) == ' ' || text.charAt(pos) == '\t')) {
+                pos++;
+            }
+            Unit best = null;
+            for (Unit unit : values()) {
+                int length = unit.symbol.length();
+                if (length == 0 || pos + length > end || (best != null && length <= best.symbol.length())) {
+                    continue;
+                }
+                if (regionMatchesIgnoreCase(text, pos, unit.symbol)) {
+                    best = unit;
+                }
+            }
+            return best;
+        }
+    }
+
+    public enum Sex {
+        UNKNOWN,
+        MALE,
+        FEMALE;
+
+        /** Reads "Male", "F" and the like; anything else is {@link #UNKNOWN}. */
+        public static Sex parse(CharSequence text, int start, int end) {
+            if (start >= end) {
+                return UNKNOWN;
+            }
+            char c = Character.toLowerCase(text.charAt(start));
+            return c == 'm' ? MALE : c == 'f' ? FEMALE : UNKNOWN;
+        }
+    }
+
+    public enum Parameter {
+        AGE("age", "Age", Unit.YEARS),
+        BP_SYSTOLIC("bp_systolic", "Blood Pressure", Unit.MMHG),
+        BP_DIASTOLIC("bp_diastolic", "Blood Pressure", Unit.MMHG),
+        RBC("rbc", "RBC", Unit.MILLION_PER_UL),
+        WBC("wbc", "WBC", Unit.THOUSAND_PER_UL),
+        HEMOGLOBIN("hemoglobin", "Hemoglobin", Unit.G_PER_DL),
+        PLATELETS("platelets", "Platelets", Unit.THOUSAND_PER_UL),
+        SUGAR("sugar", "Blood Sugar", Unit.MG_PER_DL),
+        CHOLESTEROL("cholesterol", "Cholesterol", Unit.MG_PER_DL);
+
+        public final String key;
+        public final String label;
+        public final Unit defaultUnit;
+
+        Parameter(String key, String label, Unit defaultUnit) {
+            this.key = key;
+            this.label = label;
+            this.defaultUnit = defaultUnit;
+        }
+    }
+
+    /** Receives summary table rows in display order. */
+    public interface RowSink {
+        void row(String label, String value);
+    }
+
+    private static final Parameter[] PARAMETERS = Parameter.values();
+    private static final Unit[] UNITS = Unit.values();
+
+    private final float[] values = new float[PARAMETERS.length];
+    private final byte[] units = new byte[PARAMETERS.length];
+    private final int[] flags = new int[PARAMETERS.length];
+    private String patientName;
+    private String email;
+    private Sex sex = Sex.UNKNOWN;
+
+    public boolean has(Parameter parameter) {
+        return (flags[parameter.ordinal()] & FLAG_PRESENT) != 0;
+    }
+
+    public float value(Parameter parameter) {
+        return values[parameter.ordinal()];
+    }
+
+    public Unit unit(Parameter parameter) {
+        return UNITS[units[parameter.ordinal()]];
+    }
+
+    public int flags(Parameter parameter) {
+        return flags[parameter.ordinal()];
+    }
+
+    public void addFlags(Parameter parameter, int flagBits) {
+        flags[parameter.ordinal()] |= flagBits;
+    }
+
+    public void set(Parameter parameter, float value, Unit unit) {
+        int i = parameter.ordinal();
+        values[i] = value;
+        if (unit != null) {
+            units[i] = (byte) unit.ordinal();
+            flags[i] = FLAG_PRESENT;
+        } else {
+            Unit inferred = parameter.defaultUnit;
+            if (parameter == Parameter.PLATELETS && value >= 1000) {
+                // Counts like "250,000" are per microlitre rather than thousands
+                inferred = Unit.PER_UL;
+            }
+            units[i] = (byte) inferred.ordinal();
+            flags[i] = FLAG_PRESENT | FLAG_UNIT_INFERRED;
+        }
+    }
+
+    public String getPatientName() {
+        return patientName;
+    }
+
+    public void setPatientName(String patientName) {
+        this.patientName = patientName;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+
+    public Sex getSex() {
+        return sex;
+    }
+
+    public void setSex(Sex sex) {
+        this.sex = sex != null ? sex : Sex.UNKNOWN;
+    }
+
+    public boolean isEmpty() {
+        if (patientName != null || email != null) {
+            return false;
+        }
+        for (int flag : flags) {
+            if ((flag & FLAG_PRESENT) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a decimal number in {@code text[start, end)} without creating a substring. Grouping
+     * commas ("250,000") are skipped. Returns {@link Float#NaN} if there are no digits.
+     */
+    public static float parseNumber(CharSequence text, int start, int end) {
+        long mantissa = 0;
+        int fractionDigits = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                seenDigit = true;
+                if (mantissa < Long.MAX_VALUE / 10 - 9) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (seenPoint) {
+                        fractionDigits++;
+                    }
+                }
+            } else if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else if (c != ',') {
+                break;
+            }
+        }
+        if (!seenDigit) {
+            return Float.NaN;
+        }
+        double value = mantissa;
+        for (int i = 0; i < fractionDigits; i++) {
+            value /= 10;
+        }
+        return (float) value;
+    }
+
+    /** Writes the summary table rows: patient details first, then one row per lab value. */
+    public void writeRows(RowSink sink) {
+        sink.row("Patient Name", patientName != null ? patientName : "");
+        sink.row("Email", email != null ? email : "");
+        StringBuilder sb = new StringBuilder();
+        for (Parameter parameter : PARAMETERS) {
+            if (parameter == Parameter.BP_DIASTOLIC) {
+                continue;
+            }
+            sb.setLength(0);
+            if (parameter == Parameter.BP_SYSTOLIC) {
+                appendBloodPressure(sb);
+            } else if (has(parameter)) {
+                appendNumber(sb, value(parameter));
+                Unit unit = unit(parameter);
+                if (unit != Unit.NONE && unit != Unit.YEARS) {
+                    sb.append(' ').append(unit.symbol);
+                }
+            }
+            sink.row(parameter.label, sb.toString());
+        }
+    }
+
+    /**
+     * Writes this result as one JSON object: the extra string fields first, then the patient
+     * details and every lab value that was found. Numbers are written as JSON numbers.
+     */
+    public void writeJson(Writer out, Map<String, String> extraFields) throws IOException {
+        out.write('{');
+        writeJsonFields(out, extraFields, true);
+        out.write('}');
+    }
+
+    /**
+     * Writes the members of {@link #writeJson} without the surrounding braces, so callers can
+     * add more members to the same object.
+     *
+     * @param first whether no member has been written to the object yet
+     * @return whether still no member has been written
+     */
+    public boolean writeJsonFields(Writer out, Map<String, String> extraFields, boolean first) throws IOException {
+        if (extraFields != null) {
+            for (Map.Entry<String, String> field : extraFields.entrySet()) {
+                first = writeString(out, first, field.getKey(), field.getValue());
+            }
+        }
+        first = writeString(out, first, "name", patientName);
+        first = writeString(out, first, "patient_email", email);
+        first = writeString(out, first, "sex", sex != Sex.UNKNOWN ? sex.name().toLowerCase(Locale.ROOT) : null);
+        StringBuilder sb = new StringBuilder();
+        for (Parameter parameter : PARAMETERS) {
+            if (!has(parameter)) {
+                continue;
+            }
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            sb.setLength(0);
+            appendNumber(sb, value(parameter));
+            JsonText.writeQuoted(out, parameter.key);
+            out.write(':');
+            out.append(sb);
+        }
+        if (has(Parameter.BP_SYSTOLIC) && has(Parameter.BP_DIASTOLIC)) {
+            sb.setLength(0);
+            appendBloodPressure(sb);
+            first = writeString(out, first, "bp", sb.toString());
+        }
+        return first;
+    }
+
+    /**
+     * Writes the members in the summary webhook's layout: one string member per summary table
+     * row, keyed by its display label ("Patient Name", "Blood Pressure", ...). Values carry no
+     * unit, and a parameter that was not found is written as an empty string. The deployed summary
+     * workflow reads these keys, so they must not change.
+     *
+     * @param first whether no member has been written to the object yet
+     * @return whether still no member has been written
+     */
+    public boolean writeLabelledJsonFields(Writer out, Map<String, String> extraFields, boolean first)
+            throws IOException {
+        if (extraFields != null) {
+            for (Map.Entry<String, String> field : extraFields.entrySet()) {
+                first = writeString(out, first, field.getKey(), field.getValue());
+            }
+        }
+        first = writeString(out, first, "Patient Name", patientName != null ? patientName : "");
+        first = writeString(out, first, "Email", email != null ? email : "");
+        StringBuilder sb = new StringBuilder();
+        for (Parameter parameter : PARAMETERS) {
+            if (parameter == Parameter.BP_DIASTOLIC) {
+                continue;
+            }
+            sb.setLength(0);
+            if (parameter == Parameter.BP_SYSTOLIC) {
+                appendBloodPressure(sb);
+            } else if (has(parameter)) {
+                appendNumber(sb, value(parameter));
+            }
+            first = writeString(out, first, parameter.label, sb.toString());
+        }
+        return first;
+    }
+
+    /**
+     * SHA-256 of the user, the report and the present parameter values in canonical form: fixed
+     * order, counts in their default unit and values rounded to two decimals. The same report
+     * re-read for the same user keeps its fingerprint regardless of how the values were printed or
+     * which flags were derived from them. The user and report are part of it because the summary
+     * cached under it was written from the full report text, which names the patient. Sex is
+     * included when known, as it changes how the values read.
+     *
+     * @param userId     the signed-in user the summary is for
+     * @param reportHash content hash of the report the values were read from
+     */
+    public String fingerprint(String userId, String reportHash) throws IOException {
+        StringBuilder sb = new StringBuilder("v2")
+                .append("\nuser=").append(userId)
+                .append("\nreport=").append(reportHash);
+        for (Parameter parameter : PARAMETERS) {
+            if (!has(parameter)) {
+                continue;
+            }
+            float value = value(parameter);
+            Unit unit = unit(parameter);
+            if (unit == Unit.PER_UL && parameter.defaultUnit == Unit.THOUSAND_PER_UL) {
+                value /= 1000;
+                unit = Unit.THOUSAND_PER_UL;
+            }
+            sb.append('\n').append(parameter.key).append('=')
+                    .append(Math.round(value * 100.0)).append(' ').append(unit.symbol);
+        }
+        if (sex != Sex.UNKNOWN) {
+            sb.append("\nsex=").append(sex.name());
+        }
+        return ContentHash.of(sb.toString());
+    }
+
+    /** Compact binary form used by the extraction cache. */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(PARAMETERS.length);
+        for (int i = 0; i < PARAMETERS.length; i++) {
+            out.writeFloat(values[i]);
+            out.writeByte(units[i]);
+            out.writeInt(flags[i]);
+        }
+        out.writeUTF(patientName != null ? patientName : "");
+        out.writeUTF(email != null ? email : "");
+        out.writeByte(sex.ordinal());
+    }
+
+    public static LabResult readFrom(DataInput in) throws IOException {
+        int count = in.readUnsignedByte();
+        if (count != PARAMETERS.length) {
+            throw new IOException("Unexpected parameter count " + count);
+        }
+        LabResult result = new LabResult();
+        for (int i = 0; i < count; i++) {
+            result.values[i] = in.readFloat();
+            result.units[i] = in.readByte();
+            result.flags[i] = in.readInt();
+        }
+        String name = in.readUTF();
+        String mail = in.readUTF();
+        result.patientName = name.isEmpty() ? null : name;
+        result.email = mail.isEmpty() ? null : mail;
+        int sex = in.readUnsignedByte();
+        if (sex >= Sex.values().length) {
+            throw new IOException("Unexpected sex " + sex);
+        }
+        result.sex = Sex.values()[sex];
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "LabResult" + Arrays.toString(values) + " name=" + patientName;
+    }
+
+    private void appendBloodPressure(StringBuilder sb) {
+        if (has(Parameter.BP_SYSTOLIC) && has(Parameter.BP_DIASTOLIC)) {
+            appendNumber(sb, value(Parameter.BP_SYSTOLIC));
+            sb.append('/');
+            appendNumber(sb, value(Parameter.BP_DIASTOLIC));
+        }
+    }
+
+    // Whole numbers print without a trailing ".0"
+    private static void appendNumber(StringBuilder sb, float value) {
+        if (value == (long) value) {
+            sb.append((long) value);
+        } else {
+            sb.append(value);
+        }
+    }
+
+    private static boolean writeString(Writer out, boolean first, String key, String value) throws IOException {
+        if (value == null) {
+            return first;
+        }
+        if (!first) {
+            out.write(',');
+        }
+        JsonText.writeQuoted(out, key);
+        out.write(':');
+        JsonText.writeQuoted(out, value);
+        return false;
+    }
+
+    private static boolean regionMatchesIgnoreCase(CharSequence text, int pos, String symbol) {
+        for (int i = 0; i < symbol.length(); i++) {
+            char a = text.charAt(pos + i);
+            char b = symbol.charAt(i);
+            if (a != b && Character.toLowerCase(a) != Character.toLowerCase(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
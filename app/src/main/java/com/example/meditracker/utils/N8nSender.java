@@ -1,129 +1,262 @@
 package com.example.meditracker.utils;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.widget.Toast;
 
-import com.android.volley.AuthFailureError;
-import com.android.volley.DefaultRetryPolicy;
-import com.android.volley.NetworkResponse;
-import com.android.volley.Request;
-import com.android.volley.RequestQueue;
-import com.android.volley.toolbox.JsonObjectRequest;
-import com.android.volley.toolbox.Volley;
-
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
-import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+import okhttp3.ResponseBody;
 
 public class N8nSender {
     private static final String TAG = "N8nSender";
-    private static final String N8N_WEBHOOK_URL = "https://ruban11.app.n8n.cloud/webhook-test/medvision-webhook";
-    private static final int REQUEST_TIMEOUT_MS = 15000; // 15 seconds timeout
-    private static final int MAX_RETRIES = 3;
+    private static final long DEFAULT_BATCH_WINDOW_MS = 2000;
+    private static final int DEFAULT_MAX_BATCH_SIZE = 10;
+
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
+    private static final Runnable FLUSH = N8nSender::flush;
+
+    // Payloads waiting for the batch window to close; guarded by the list itself
+    private static final List<Pending> pending = new ArrayList<>();
+    private static long batchWindowMs = DEFAULT_BATCH_WINDOW_MS;
+    private static int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private static boolean flushScheduled;
+
+    /** Called on the main thread with the webhook outcome. */
+    public interface Callback {
+        void onSuccess(JSONObject response);
 
-    public static void sendDataToN8n(Context context, Map<String, String> extracted, String userName,
+        void onFailure(String message);
+    }
+
+    private static class Pending {
+        final Context context;
+        final GzipJsonBody.Source payload;
+        final Callback callback;
+
+        Pending(Context context, GzipJsonBody.Source payload, Callback callback) {
+            this.context = context;
+            this.payload = payload;
+            this.callback = callback;
+        }
+    }
+
+    // Sends the report and reports the outcome with a Toast
+    public static void sendDataToN8n(Context context, LabResult extracted, String userName,
                                      String email, String fileUrl, String timestamp) {
         if (context == null) {
             Log.e(TAG, "Context is null, cannot send request");
             return;
         }
+        sendDataToN8n(context, extracted, userName, email, fileUrl, timestamp, new Callback() {
+            @Override
+            public void onSuccess(JSONObject response) {
+                Toast.makeText(context, "Report sent to n8n for analysis", Toast.LENGTH_SHORT).show();
+            }
+
+            @Override
+            public void onFailure(String message) {
+                Toast.makeText(context, message, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
+    public static void sendDataToN8n(Context context, LabResult extracted, String userName,
+                                     String email, String fileUrl, String timestamp, Callback callback) {
+        if (context == null) {
+            Log.e(TAG, "Context is null, cannot send request");
+            return;
+        }
+        GzipJsonBody.Source payload = buildPayload(extracted, userName, email, fileUrl, timestamp, callback);
+        if (payload != null) {
+            List<Pending> single = new ArrayList<>(1);
+            single.add(new Pending(context, payload, callback));
+            post(single);
+        }
+    }
+
+    /**
+     * Sets how long {@link #sendBatched} waits for more reports and how many reports go into one
+     * request at most.
+     */
+    public static void setBatchWindow(long windowMs, int maxSize) {
+        synchronized (pending) {
+            batchWindowMs = windowMs;
+            maxBatchSize = Math.max(1, maxSize);
+        }
+    }
+
+    /**
+     * Like {@link #sendDataToN8n}, but the payload waits up to the batch window for other reports.
+     * Everything pending is then posted together as one JSON array, or as a plain object if only
+     * one report arrived. Each callback receives its element of an array response, or the whole
+     * object response.
+     */
+    public static void sendBatched(Context context, LabResult extracted, String userName,
+                                   String email, String fileUrl, String timestamp, Callback callback) {
+        if (context == null) {
+            Log.e(TAG, "Context is null, cannot send request");
+            return;
+        }
+        GzipJsonBody.Source payload = buildPayload(extracted, userName, email, fileUrl, timestamp, callback);
+        if (payload == null) {
+            return;
+        }
+
+        List<Pending> batch = null;
+        synchronized (pending) {
+            pending.add(new Pending(context, payload, callback));
+            if (pending.size() >= maxBatchSize) {
+                MAIN.removeCallbacks(FLUSH);
+                flushScheduled = false;
+                batch = drainPending();
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                MAIN.postDelayed(FLUSH, batchWindowMs);
+            }
+        }
+        if (batch != null) {
+            post(batch);
+        }
+    }
 
+    /** Posts every pending batched report now instead of waiting for the window to close. */
+    public static void flush() {
+        List<Pending> batch;
+        synchronized (pending) {
+            MAIN.removeCallbacks(FLUSH);
+            flushScheduled = false;
+            batch = drainPending();
+        }
+        if (!batch.isEmpty()) {
+            post(batch);
+        }
+    }
+
+    private static List<Pending> drainPending() {
+        List<Pending> batch = new ArrayList<>(pending);
+        pending.clear();
+        return batch;
+    }
+
+    // Validates one report; reports problems to the callback and returns null
+    private static GzipJsonBody.Source buildPayload(LabResult extracted, String userName, String email,
+                                       String fileUrl, String timestamp, Callback callback) {
         if (extracted == null || extracted.isEmpty()) {
             Log.w(TAG, "Extracted parameters are null or empty");
-            Toast.makeText(context, "No health parameters to send", Toast.LENGTH_LONG).show();
-            return;
+            callback.onFailure("No health parameters to send");
+            return null;
         }
 
         if (fileUrl == null || fileUrl.isEmpty()) {
             Log.w(TAG, "File URL is null or empty");
-            Toast.makeText(context, "Invalid file URL", Toast.LENGTH_LONG).show();
-            return;
+            callback.onFailure("Invalid file URL");
+            return null;
         }
 
-        try {
-            JSONObject json = new JSONObject();
-            json.put("user_name", userName != null ? userName : "Unknown");
-            json.put("email", email != null ? email : "");
-            json.put("file_url", fileUrl);
-            json.put("timestamp", timestamp != null ? timestamp : "");
-
-            // Add extracted parameters with explicit keys
-            String[] paramKeys = {"name", "age", "rbc", "wbc", "hemoglobin", "platelets", "sugar", "cholesterol", "bp"};
-            for (String key : paramKeys) {
-                if (extracted.containsKey(key)) {
-                    json.put(key, extracted.get(key));
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put("user_name", userName != null ? userName : "Unknown");
+        fields.put("email", email != null ? email : "");
+        fields.put("file_url", fileUrl);
+        fields.put("timestamp", timestamp != null ? timestamp : "");
+        // Written straight from the typed result when the request body is generated
+        return new ReportPayload(extracted, fields, null);
+    }
+
+    // One report goes out as a plain object, several as a JSON array
+    private static GzipJsonBody.Source batchSource(List<Pending> batch) {
+        if (batch.size() == 1) {
+            return batch.get(0).payload;
+        }
+        return out -> {
+            out.write('[');
+            for (int i = 0; i < batch.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
                 }
+                batch.get(i).payload.writeTo(out);
             }
+            out.write(']');
+        };
+    }
 
-            Log.d(TAG, "JSON payload: " + json.toString());
-
-            JsonObjectRequest request = new JsonObjectRequest(
-                    Request.Method.POST,
-                    N8N_WEBHOOK_URL,
-                    json,
-                    response -> {
-                        Log.d(TAG, "Webhook success: " + response.toString());
-                        Toast.makeText(context, "Report sent to n8n for analysis", Toast.LENGTH_SHORT).show();
-                    },
-                    error -> {
-                        String errorMessage = "Failed to send report to n8n";
-                        int statusCode = -1;
-                        String responseBody = "";
-                        if (error.networkResponse != null) {
-                            statusCode = error.networkResponse.statusCode;
-                            responseBody = new String(error.networkResponse.data, StandardCharsets.UTF_8);
-                            errorMessage += " (Status: " + statusCode + ", Response: " + responseBody + ")";
-                        } else if (error.getMessage() != null) {
-                            errorMessage += " (" + error.getMessage() + ")";
-                        }
-                        Log.e(TAG, errorMessage, error);
-                        String userMessage;
-                        switch (statusCode) {
-                            case 403:
-                                userMessage = "Webhook authentication failed. Check API key.";
-                                break;
-                            case 404:
-                                userMessage = "Webhook URL not found. Verify n8n workflow.";
-                                break;
-                            case 429:
-                                userMessage = "Rate limit exceeded. Try again later.";
-                                break;
-                            default:
-                                userMessage = "Failed to send report to n8n: " + (error.getMessage() != null ? error.getMessage() : "Unknown error");
-                        }
-                        Toast.makeText(context, userMessage, Toast.LENGTH_LONG).show();
+    private static void post(List<Pending> batch) {
+        Log.d(TAG, "Posting " + batch.size() + " report(s)");
+        // Not tied to a screen: batched reports belong to several callers
+        WebhookClient.getInstance(batch.get(0).context)
+                .post(null, WebhookClient.Endpoint.REPORTS, batchSource(batch), N8nSender::parseResponse)
+                .whenCompleteAsync((response, error) -> {
+                    if (error == null) {
+                        Log.d(TAG, "Webhook success: " + response);
+                        deliverSuccess(batch, response);
+                        return;
                     }
-            ) {
-                @Override
-                public Map<String, String> getHeaders() throws AuthFailureError {
-                    Map<String, String> headers = new HashMap<>();
-                    headers.put("Content-Type", "application/json");
-                    // Uncomment and add API key if required
-                    // headers.put("Authorization", "Bearer YOUR_API_KEY");
-                    return headers;
-                }
-            };
+                    String userMessage = describeError(error);
+                    for (Pending item : batch) {
+                        item.callback.onFailure(userMessage);
+                    }
+                }, MAIN::post);
+    }
 
-            request.setRetryPolicy(new DefaultRetryPolicy(
-                    REQUEST_TIMEOUT_MS,
-                    MAX_RETRIES,
-                    DefaultRetryPolicy.DEFAULT_BACKOFF_MULT
-            ));
+    private static Object parseResponse(ResponseBody body) throws IOException {
+        String json = body.string();
+        if (json.trim().isEmpty()) {
+            return new JSONObject();
+        }
+        try {
+            return new JSONTokener(json).nextValue();
+        } catch (JSONException e) {
+            throw new IOException("Unreadable webhook response", e);
+        }
+    }
 
-            RequestQueue queue = Volley.newRequestQueue(context);
-            queue.add(request);
-            Log.d(TAG, "Request sent to n8n webhook");
+    // An array response answering every report maps back element by element
+    private static void deliverSuccess(List<Pending> batch, Object response) {
+        for (int i = 0; i < batch.size(); i++) {
+            JSONObject result = null;
+            if (response instanceof JSONArray && ((JSONArray) response).length() == batch.size()) {
+                result = ((JSONArray) response).optJSONObject(i);
+            } else if (response instanceof JSONObject) {
+                result = (JSONObject) response;
+            }
+            batch.get(i).callback.onSuccess(result != null ? result : new JSONObject());
+        }
+    }
 
-        } catch (JSONException e) {
-            Log.e(TAG, "JSON construction error: " + e.getMessage(), e);
-            Toast.makeText(context, "Failed to prepare report data", Toast.LENGTH_LONG).show();
-        } catch (Exception e) {
-            Log.e(TAG, "Unexpected error: " + e.getMessage(), e);
-            Toast.makeText(context, "Unexpected error occurred", Toast.LENGTH_LONG).show();
+    private static String describeError(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        Log.e(TAG, "Failed to send report to n8n", error);
+        if (!(error instanceof WebhookClient.WebhookException)) {
+            return "Failed to send report to n8n: " + (error.getMessage() != null ? error.getMessage() : "Unknown error");
+        }
+        WebhookClient.WebhookException failure = (WebhookClient.WebhookException) error;
+        if (failure instanceof WebhookClient.CircuitOpenException) {
+            return "The analysis service is not responding. The report is saved and will be sent automatically.";
+        }
+        if (failure.queued) {
+            return "Connection problem. The report is saved and will be sent automatically.";
+        }
+        switch (failure.code) {
+            case 403:
+                return "Webhook authentication failed. Check API key.";
+            case 404:
+                return "Webhook URL not found. Verify n8n workflow.";
+            default:
+                return "Failed to send report to n8n: " + failure.getMessage();
         }
     }
-}
\ No newline at end of file
+}
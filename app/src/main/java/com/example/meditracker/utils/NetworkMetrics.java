@@ -0,0 +1,333 @@
+package com.example.meditracker.utils;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.HttpUrl;
+import okhttp3.Protocol;
+import okhttp3.Request;
+
+/**
+ * Phase timings of recent HTTP calls, kept per endpoint, so a slow analysis can be pinned on DNS,
+ * connection setup, TLS, the upload, server think-time or the download. OkHttp calls are timed by
+ * the {@link #eventListenerFactory()} installed on {@link SharedHttpClient}. Only the last
+ * {@link #SAMPLES_PER_ENDPOINT} calls of each endpoint are kept, in memory.
+ */
+public class NetworkMetrics {
+    private static final String TAG = "NetworkMetrics";
+
+    private static final int SAMPLES_PER_ENDPOINT = 200;
+    private static final int MAX_ENDPOINTS = 20;
+    // A phase that did not happen in a call, e.g. DNS on a reused connection
+    private static final long SKIPPED = -1;
+
+    public enum Phase {
+        DNS("dns"),
+        CONNECT("connect"),
+        TLS("tls"),
+        REQUEST_BODY("request_body"),
+        FIRST_BYTE("first_byte"),
+        RESPONSE_BODY("response_body"),
+        TOTAL("total");
+
+        public final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private static NetworkMetrics instance;
+
+    // Insertion ordered, so reports list endpoints in the order they were first used
+    private final Map<String, Series> series = new LinkedHashMap<>();
+
+    // Ring buffer of one endpoint's most recent calls, in milliseconds
+    private static final class Series {
+        final long[][] phases = new long[SAMPLES_PER_ENDPOINT][PHASES.length];
+        final long[] startedAt = new long[SAMPLES_PER_ENDPOINT];
+        final boolean[] failed = new boolean[SAMPLES_PER_ENDPOINT];
+        int next;
+        int count;
+
+        void add(long startedAtMs, long[] sample, boolean failedCall) {
+            System.arraycopy(sample, 0, phases[next], 0, sample.length);
+            startedAt[next] = startedAtMs;
+            failed[next] = failedCall;
+            next = (next + 1) % SAMPLES_PER_ENDPOINT;
+            count = Math.min(count + 1, SAMPLES_PER_ENDPOINT);
+        }
+
+        // Index of the i-th oldest sample
+        int at(int i) {
+            return (next - count + i + SAMPLES_PER_ENDPOINT) % SAMPLES_PER_ENDPOINT;
+        }
+    }
+
+    public static synchronized NetworkMetrics getInstance() {
+        if (instance == null) {
+            instance = new NetworkMetrics();
+        }
+        return instance;
+    }
+
+    NetworkMetrics() {
+    }
+
+    /** Times every call of the client it is installed on. */
+    public EventListener.Factory eventListenerFactory() {
+        return call -> new CallTimer();
+    }
+
+    /** Clears every series, e.g. before measuring a new build. */
+    public synchronized void reset() {
+        series.clear();
+    }
+
+    /**
+     * Human-readable summary: per endpoint, the p50/p95/p99 of each phase in milliseconds, over
+     * the calls in which that phase happened.
+     */
+    public synchronized String report() {
+        if (series.isEmpty()) {
+            return "No calls recorded yet.";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Series> entry : series.entrySet()) {
+            Series s = entry.getValue();
+            int failed = 0;
+            for (int i = 0; i < s.count; i++) {
+                if (s.failed[i]) {
+                    failed++;
+                }
+            }
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(entry.getKey()).append('\n')
+                    .append("  ").append(s.count).append(" calls, ").append(failed).append(" failed\n");
+            for (Phase phase : PHASES) {
+                long[] sorted = phaseValues(s, phase);
+                if (sorted.length == 0) {
+                    continue;
+                }
+                sb.append(String.format(Locale.US, "  %-14s p50 %6d  p95 %6d  p99 %6d ms  (n=%d)%n",
+                        phase.label, CircuitBreaker.percentile(sorted, 50),
+                        CircuitBreaker.percentile(sorted, 95), CircuitBreaker.percentile(sorted, 99),
+                        sorted.length));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes every kept call as one CSV row, oldest first per endpoint. Phases that did not happen
+     * are left empty.
+     */
+    public void exportCsv(File file) throws IOException {
+        try (Writer out = new FileWriter(file)) {
+            out.write("endpoint,started_at_ms,failed");
+            for (Phase phase : PHASES) {
+                out.write(',');
+                out.write(phase.label + "_ms");
+            }
+            out.write('\n');
+            synchronized (this) {
+                for (Map.Entry<String, Series> entry : series.entrySet()) {
+                    Series s = entry.getValue();
+                    for (int i = 0; i < s.count; i++) {
+                        int index = s.at(i);
+                        out.write(entry.getKey());
+                        out.write(',');
+                        out.write(Long.toString(s.startedAt[index]));
+                        out.write(',');
+                        out.write(s.failed[index] ? "1" : "0");
+                        for (long value : s.phases[index]) {
+                            out.write(',');
+                            if (value != SKIPPED) {
+                                out.write(Long.toString(value));
+                            }
+                        }
+                        out.write('\n');
+                    }
+                }
+            }
+        }
+    }
+
+    private synchronized void record(String endpoint, long startedAtMs, long[] sample, boolean failed) {
+        Series s = series.get(endpoint);
+        if (s == null) {
+            if (series.size() >= MAX_ENDPOINTS) {
+                Log.w(TAG, "Not timing " + endpoint + ", already tracking " + MAX_ENDPOINTS + " endpoints");
+                return;
+            }
+            s = new Series();
+            series.put(endpoint, s);
+        }
+        s.add(startedAtMs, sample, failed);
+    }
+
+    private static long[] phaseValues(Series s, Phase phase) {
+        long[] values = new long[s.count];
+        int n = 0;
+        for (int i = 0; i < s.count; i++) {
+            long value = s.phases[i][phase.ordinal()];
+            if (value != SKIPPED) {
+                values[n++] = value;
+            }
+        }
+        values = Arrays.copyOf(values, n);
+        Arrays.sort(values);
+        return values;
+    }
+
+    // Host and path, without the query, so calls to one webhook share a series
+    static String endpointName(HttpUrl url) {
+        return url.host() + url.encodedPath();
+    }
+
+    // One per call. OkHttp reports the events of a call in order, so no locking is needed. Retries
+    // and redirects within a call add to the same phases.
+    private final class CallTimer extends EventListener {
+        private final long[] nanos = new long[PHASES.length];
+        private long startedAtMs;
+        private long callStart;
+        private long dnsStart;
+        private long connectStart;
+        private long tlsStart;
+        private long tlsNanos;
+        private long requestBodyStart;
+        private long waitStart;
+        private long responseBodyStart;
+
+        CallTimer() {
+            Arrays.fill(nanos, SKIPPED);
+        }
+
+        private void add(Phase phase, long start) {
+            int i = phase.ordinal();
+            nanos[i] = Math.max(nanos[i], 0) + (System.nanoTime() - start);
+        }
+
+        @Override
+        public void callStart(@NonNull Call call) {
+            startedAtMs = System.currentTimeMillis();
+            callStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsStart(@NonNull Call call, @NonNull String domainName) {
+            dnsStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(@NonNull Call call, @NonNull String domainName, @NonNull List<InetAddress> addresses) {
+            add(Phase.DNS, dnsStart);
+        }
+
+        @Override
+        public void connectStart(@NonNull Call call, @NonNull InetSocketAddress address, @NonNull Proxy proxy) {
+            connectStart = System.nanoTime();
+            tlsNanos = 0;
+        }
+
+        @Override
+        public void secureConnectStart(@NonNull Call call) {
+            tlsStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectEnd(@NonNull Call call, Handshake handshake) {
+            tlsNanos = System.nanoTime() - tlsStart;
+            add(Phase.TLS, tlsStart);
+        }
+
+        @Override
+        public void connectEnd(@NonNull Call call, @NonNull InetSocketAddress address,
+                               @NonNull Proxy proxy, Protocol protocol) {
+            connectEnded();
+        }
+
+        @Override
+        public void connectFailed(@NonNull Call call, @NonNull InetSocketAddress address,
+                                  @NonNull Proxy proxy, Protocol protocol, @NonNull IOException e) {
+            connectEnded();
+        }
+
+        // Connect covers the TCP handshake only; the TLS handshake inside it is its own phase
+        private void connectEnded() {
+            int i = Phase.CONNECT.ordinal();
+            nanos[i] = Math.max(nanos[i], 0) + (System.nanoTime() - connectStart - tlsNanos);
+        }
+
+        @Override
+        public void requestHeadersEnd(@NonNull Call call, @NonNull Request request) {
+            waitStart = System.nanoTime();
+        }
+
+        @Override
+        public void requestBodyStart(@NonNull Call call) {
+            requestBodyStart = System.nanoTime();
+        }
+
+        @Override
+        public void requestBodyEnd(@NonNull Call call, long byteCount) {
+            add(Phase.REQUEST_BODY, requestBodyStart);
+            waitStart = System.nanoTime();
+        }
+
+        @Override
+        public void responseHeadersStart(@NonNull Call call) {
+            add(Phase.FIRST_BYTE, waitStart);
+        }
+
+        @Override
+        public void responseBodyStart(@NonNull Call call) {
+            responseBodyStart = System.nanoTime();
+        }
+
+        @Override
+        public void responseBodyEnd(@NonNull Call call, long byteCount) {
+            add(Phase.RESPONSE_BODY, responseBodyStart);
+        }
+
+        @Override
+        public void callEnd(@NonNull Call call) {
+            finish(call, false);
+        }
+
+        @Override
+        public void callFailed(@NonNull Call call, @NonNull IOException ioe) {
+            finish(call, true);
+        }
+
+        private void finish(Call call, boolean failed) {
+            add(Phase.TOTAL, callStart);
+            long[] sample = new long[PHASES.length];
+            for (int i = 0; i < sample.length; i++) {
+                sample[i] = nanos[i] == SKIPPED ? SKIPPED : nanos[i] / 1_000_000;
+            }
+            record(endpointName(call.request().url()), startedAtMs, sample, failed);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.meditracker.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.text.TextRecognition;
+import com.google.mlkit.vision.text.TextRecognizer;
+import com.google.mlkit.vision.text.latin.TextRecognizerOptions;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * App-wide OCR service. Keeps a single ML Kit recognizer alive and feeds it full-resolution
+ * captures decoded down to {@link #TARGET_MAX_DIMENSION}, which keeps small lab-report print
+ * legible while bounding recognition latency. Decode buffers are reused between captures that
+ * come in quick succession and released once OCR has been idle for a while.
+ */
+public class OcrEngine {
+    private static final String TAG = "OcrEngine";
+
+    // Longest edge handed to the recognizer; report text stays readable well below camera resolution
+    static final int TARGET_MAX_DIMENSION = 2048;
+    // A pooled bitmap can be tens of MB, so it is only kept while captures keep coming
+    private static final long IDLE_RELEASE_MS = 30_000;
+
+    private static OcrEngine instance;
+
+    private final TextRecognizer recognizer = TextRecognition.getClient(TextRecognizerOptions.DEFAULT_OPTIONS);
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "ocr"));
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private Bitmap reusableBitmap;
+    private final Runnable releasePool = this::releasePool;
+
+    /** Turns recognized text into the caller's result; runs on the OCR thread. */
+    public interface Parser<T> {
+        T parse(String text) throws Exception;
+    }
+
+    /** Called on the main thread. */
+    public interface Callback<T> {
+        void onSuccess(T result, Timings timings);
+
+        void onFailure(Exception e);
+    }
+
+    /** Wall-clock time spent in each stage of one recognition, in milliseconds. */
+    public static class Timings {
+        public long decodeMs;
+        public long recognizeMs;
+        public long parseMs;
+
+        @Override
+        public String toString() {
+            return "decode=" + decodeMs + "ms, recognize=" + recognizeMs + "ms, parse=" + parseMs + "ms";
+        }
+    }
+
+    public static synchronized OcrEngine getInstance() {
+        if (instance == null) {
+            instance = new OcrEngine();
+        }
+        return instance;
+    }
+
+    private OcrEngine() {
+    }
+
+    public <T> void recognize(File imageFile, Parser<T> parser, Callback<T> callback) {
+        executor.execute(() -> {
+            Timings timings = new Timings();
+            long start = SystemClock.elapsedRealtime();
+            Bitmap bitmap;
+            int rotation;
+            try {
+                bitmap = decode(imageFile);
+                rotation = readRotation(imageFile);
+            } catch (Exception e) {
+                deliverFailure(callback, e);
+                return;
+            }
+            timings.decodeMs = SystemClock.elapsedRealtime() - start;
+
+            long recognizeStart = SystemClock.elapsedRealtime();
+            recognizer.process(InputImage.fromBitmap(bitmap, rotation))
+                    .addOnSuccessListener(executor, visionText -> {
+                        timings.recognizeMs = SystemClock.elapsedRealtime() - recognizeStart;
+                        recycle(bitmap);
+                        try {
+                            long parseStart = SystemClock.elapsedRealtime();
+                            T result = parser.parse(visionText.getText());
+                            timings.parseMs = SystemClock.elapsedRealtime() - parseStart;
+                            Log.d(TAG, "OCR of " + imageFile.getName() + ": " + timings);
+                            mainHandler.post(() -> callback.onSuccess(result, timings));
+                        } catch (Exception e) {
+                            deliverFailure(callback, e);
+                        }
+                    })
+                    .addOnFailureListener(executor, e -> {
+                        recycle(bitmap);
+                        deliverFailure(callback, e);
+                    });
+        });
+    }
+
+    // Decodes with the largest power-of-two subsample that keeps the long edge >= target
+    private Bitmap decode(File imageFile) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(imageFile.getAbsolutePath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Not a decodable image: " + imageFile);
+        }
+
+        int longEdge = Math.max(options.outWidth, options.outHeight);
+        int sampleSize = 1;
+        while (longEdge / (sampleSize * 2) >= TARGET_MAX_DIMENSION) {
+            sampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        synchronized (this) {
+            if (canDecodeInto(reusableBitmap, options)) {
+                options.inBitmap = reusableBitmap;
+                reusableBitmap = null;
+            }
+        }
+
+        Bitmap bitmap = decodeFile(imageFile, options);
+        if (bitmap == null) {
+            throw new IOException("Failed to decode " + imageFile);
+        }
+
+        int decodedLongEdge = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (decodedLongEdge > TARGET_MAX_DIMENSION * 3 / 2) {
+            float scale = (float) TARGET_MAX_DIMENSION / decodedLongEdge;
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                    Math.round(bitmap.getWidth() * scale), Math.round(bitmap.getHeight() * scale), true);
+            recycle(bitmap);
+            bitmap = scaled;
+        }
+        return bitmap;
+    }
+
+    /**
+     * Whether {@code pooled} is big enough to decode into with {@code options}, whose bounds and
+     * sample size are already set. Too small a bitmap would make the decode fail.
+     */
+    static boolean canDecodeInto(Bitmap pooled, BitmapFactory.Options options) {
+        if (pooled == null || pooled.isRecycled()) {
+            return false;
+        }
+        long width = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+        long height = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+        return pooled.getAllocationByteCount() >= width * height * 4;
+    }
+
+    /**
+     * Decodes with {@code options}, trying again without its pooled bitmap if that one could not
+     * be used; BitmapFactory reports that by returning null rather than throwing.
+     */
+    static Bitmap decodeFile(File imageFile, BitmapFactory.Options options) {
+        Bitmap bitmap = BitmapFactory.decodeFile(imageFile.getAbsolutePath(), options);
+        if (bitmap == null && options.inBitmap != null) {
+            Log.d(TAG, "Pooled bitmap not usable for " + imageFile.getName() + ", decoding into a new one");
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeFile(imageFile.getAbsolutePath(), options);
+        }
+        return bitmap;
+    }
+
+    private int readRotation(File imageFile) {
+        try {
+            int orientation = new ExifInterface(imageFile.getAbsolutePath()).getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            switch (orientation) {
+                case ExifInterface.ORIENTATION_ROTATE_90:
+                    return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180:
+                    return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270:
+                    return 270;
+                default:
+                    return 0;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read EXIF orientation: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    // Keeps the largest mutable bitmap around for the next decode, until OCR has been idle a while
+    private synchronized void recycle(Bitmap bitmap) {
+        mainHandler.removeCallbacks(releasePool);
+        mainHandler.postDelayed(releasePool, IDLE_RELEASE_MS);
+        if (!bitmap.isMutable()) {
+            bitmap.recycle();
+            return;
+        }
+        if (reusableBitmap == null || reusableBitmap.getAllocationByteCount() < bitmap.getAllocationByteCount()) {
+            if (reusableBitmap != null) {
+                reusableBitmap.recycle();
+            }
+            reusableBitmap = bitmap;
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    private synchronized void releasePool() {
+        if (reusableBitmap != null) {
+            reusableBitmap.recycle();
+            reusableBitmap = null;
+            Log.d(TAG, "Released pooled bitmap after idling");
+        }
+    }
+
+    private <T> void deliverFailure(Callback<T> callback, Exception e) {
+        Log.e(TAG, "OCR failed: " + e.getMessage(), e);
+        mainHandler.post(() -> callback.onFailure(e));
+    }
+}
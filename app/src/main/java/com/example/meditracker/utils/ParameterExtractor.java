@@ -0,0 +1,325 @@
+package com.example.meditracker.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds labelled values (e.g. "Hemoglobin: 13.5") in report text with a single scan.
+ *
+ * All label keywords are compiled into one Aho-Corasick automaton, so the text is read once
+ * no matter how many fields are configured. A field's value pattern only runs, anchored, at
+ * the offsets where one of its labels ended. Labels only match as whole words: the characters
+ * right before and after a label must not be letters, so "Average: 55" is not read as an age.
+ * Instances are immutable and thread-safe; build them once and keep them in a static field.
+ */
+public final class ParameterExtractor {
+
+    private static final int ROOT = 0;
+    // Outputs are packed as (field << LENGTH_BITS) | label length
+    private static final int LENGTH_BITS = 16;
+    private static final int LENGTH_MASK = (1 << LENGTH_BITS) - 1;
+
+    private final String[] keys;
+    private final Pattern[] valuePatterns;
+
+    // Maps an ASCII char to its automaton symbol; 0 means "not part of any label".
+    private final int[] symbolOf = new int[128];
+    private final int spaceSymbol;
+    // transitions[state * alphabetSize + symbol] -> next state
+    private final int[] transitions;
+    private final int alphabetSize;
+    // Labels that end in a given state, including those reached via failure links, packed as
+    // field index and label length in symbols.
+    private final int[][] outputs;
+
+    private ParameterExtractor(Builder builder) {
+        int fieldCount = builder.keys.size();
+        keys = builder.keys.toArray(new String[0]);
+        valuePatterns = builder.patterns.toArray(new Pattern[0]);
+
+        int nextSymbol = 1;
+        for (String[] labels : builder.labels) {
+            for (String label : labels) {
+                for (int i = 0; i < label.length(); i++) {
+                    char c = label.charAt(i);
+                    if (symbolOf[c] == 0) {
+                        symbolOf[c] = nextSymbol++;
+                    }
+                }
+            }
+        }
+        if (symbolOf[' '] == 0) {
+            symbolOf[' '] = nextSymbol++;
+        }
+        spaceSymbol = symbolOf[' '];
+        alphabetSize = nextSymbol;
+
+        // Build the keyword trie.
+        List<int[]> trie = new ArrayList<>();
+        List<List<Integer>> out = new ArrayList<>();
+        trie.add(newRow());
+        out.add(new ArrayList<>());
+        for (int field = 0; field < fieldCount; field++) {
+            for (String label : builder.labels.get(field)) {
+                int state = ROOT;
+                for (int i = 0; i < label.length(); i++) {
+                    int symbol = symbolOf[label.charAt(i)];
+                    int next = trie.get(state)[symbol];
+                    if (next <= 0) {
+                        next = trie.size();
+                        trie.add(newRow());
+                        out.add(new ArrayList<>());
+                        trie.get(state)[symbol] = next;
+                    }
+                    state = next;
+                }
+                int output = (field << LENGTH_BITS) | label.length();
+                if (!out.get(state).contains(output)) {
+                    out.get(state).add(output);
+                }
+            }
+        }
+
+        // Breadth-first pass: resolve failure links and turn the trie into a full DFA.
+        int stateCount = trie.size();
+        int[] fail = new int[stateCount];
+        transitions = new int[stateCount * alphabetSize];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int symbol = 1; symbol < alphabetSize; symbol++) {
+            int child = trie.get(ROOT)[symbol];
+            if (child > 0) {
+                fail[child] = ROOT;
+                transitions[symbol] = child;
+                queue.add(child);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (int f : out.get(fail[state])) {
+                if (!out.get(state).contains(f)) {
+                    out.get(state).add(f);
+                }
+            }
+            for (int symbol = 1; symbol < alphabetSize; symbol++) {
+                int child = trie.get(state)[symbol];
+                int fallback = transitions[fail[state] * alphabetSize + symbol];
+                if (child > 0) {
+                    fail[child] = fallback;
+                    transitions[state * alphabetSize + symbol] = child;
+                    queue.add(child);
+                } else {
+                    transitions[state * alphabetSize + symbol] = fallback;
+                }
+            }
+        }
+
+        outputs = new int[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            List<Integer> labelEnds = out.get(state);
+            int[] row = new int[labelEnds.size()];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = labelEnds.get(i);
+            }
+            outputs[state] = row;
+        }
+    }
+
+    private int[] newRow() {
+        int[] row = new int[alphabetSize];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    /** Keys of the configured fields, in the order they were added. */
+    public String[] keys() {
+        return keys.clone();
+    }
+
+    /** Receives the offsets of each value found; the value is {@code text[start, end)}. */
+    public interface ValueSink {
+        void onValue(int field, CharSequence text, int start, int end);
+    }
+
+    /**
+     * Scans {@code text} once and returns the first value found for each field, keyed by field key.
+     * Fields that were not found are absent from the result.
+     */
+    public Map<String, String> extract(CharSequence text) {
+        Map<String, String> result = new HashMap<>();
+        Session session = new Session((field, chunk, start, end) ->
+                result.put(keys[field], chunk.subSequence(start, end).toString().trim()), null);
+        session.feed(text);
+        return result;
+    }
+
+    /**
+     * Starts an incremental extraction over text that arrives in chunks (e.g. one PDF page at a
+     * time). Values are reported to {@code sink} by field index, in the order fields were added to
+     * the builder, without copying them out of the text. The session is complete once every key in
+     * {@code requiredKeys} has a value; pass no keys to require all fields.
+     */
+    public Session newSession(ValueSink sink, String... requiredKeys) {
+        return new Session(sink, requiredKeys.length == 0 ? null : requiredKeys);
+    }
+
+    public final class Session {
+        private final ValueSink sink;
+        private final boolean[] found = new boolean[keys.length];
+        private final boolean[] required = new boolean[keys.length];
+        private final Matcher[] matchers = new Matcher[keys.length];
+        private final boolean[] matcherBound = new boolean[keys.length];
+        private int foundCount;
+        private int missingRequired;
+
+        private Session(ValueSink sink, String[] requiredKeys) {
+            this.sink = sink;
+            List<String> keyList = Arrays.asList(keys);
+            if (requiredKeys == null) {
+                Arrays.fill(required, true);
+                missingRequired = keys.length;
+                return;
+            }
+            for (String key : requiredKeys) {
+                int field = keyList.indexOf(key);
+                if (field < 0) {
+                    throw new IllegalArgumentException("Unknown field: " + key);
+                }
+                if (!required[field]) {
+                    required[field] = true;
+                    missingRequired++;
+                }
+            }
+        }
+
+        /**
+         * Scans one chunk of text. Labels and values are not matched across chunk boundaries.
+         *
+         * @return {@code true} once every required field has been found
+         */
+        public boolean feed(CharSequence chunk) {
+            if (chunk == null || chunk.length() == 0 || foundCount == keys.length) {
+                return isComplete();
+            }
+            Arrays.fill(matcherBound, false);
+
+            int length = chunk.length();
+            int state = ROOT;
+            boolean lastWasSpace = false;
+
+            for (int i = 0; i < length && foundCount < keys.length; i++) {
+                char c = chunk.charAt(i);
+                int symbol;
+                if (Character.isWhitespace(c)) {
+                    // Runs of whitespace behave like the single space used in multi-word labels.
+                    if (lastWasSpace) {
+                        continue;
+                    }
+                    lastWasSpace = true;
+                    symbol = spaceSymbol;
+                } else {
+                    lastWasSpace = false;
+                    if (c >= 'A' && c <= 'Z') {
+                        c = (char) (c | 0x20);
+                    }
+                    symbol = c < 128 ? symbolOf[c] : 0;
+                }
+
+                state = symbol == 0 ? ROOT : transitions[state * alphabetSize + symbol];
+
+                for (int output : outputs[state]) {
+                    int field = output >>> LENGTH_BITS;
+                    if (found[field] || !isWholeWord(chunk, i, output & LENGTH_MASK)) {
+                        continue;
+                    }
+                    Matcher matcher = matchers[field];
+                    if (matcher == null) {
+                        matcher = valuePatterns[field].matcher(chunk);
+                        matchers[field] = matcher;
+                    } else if (!matcherBound[field]) {
+                        matcher.reset(chunk);
+                    }
+                    matcherBound[field] = true;
+                    matcher.region(i + 1, length);
+                    if (matcher.lookingAt()) {
+                        found[field] = true;
+                        foundCount++;
+                        if (required[field]) {
+                            missingRequired--;
+                        }
+                        sink.onValue(field, chunk, matcher.start(1), matcher.end(1));
+                    }
+                }
+            }
+            return isComplete();
+        }
+
+        public boolean isComplete() {
+            return missingRequired == 0;
+        }
+    }
+
+    /**
+     * Whether the label of {@code length} symbols ending at {@code end} stands on its own, with no
+     * letter right before or after it. Walks back over the label the way the scan consumed it, with
+     * each run of whitespace as one symbol. Only runs when a label matched, so the scan itself
+     * stays one table lookup per character.
+     */
+    private static boolean isWholeWord(CharSequence text, int end, int length) {
+        if (end + 1 < text.length() && Character.isLetter(text.charAt(end + 1))) {
+            return false;
+        }
+        int start = end;
+        for (int remaining = length - 1; remaining > 0; remaining--) {
+            start--;
+            while (start > 0 && Character.isWhitespace(text.charAt(start))
+                    && Character.isWhitespace(text.charAt(start - 1))) {
+                start--;
+            }
+        }
+        return start == 0 || !Character.isLetter(text.charAt(start - 1));
+    }
+
+    public static final class Builder {
+        private final List<String> keys = new ArrayList<>();
+        private final List<String[]> labels = new ArrayList<>();
+        private final List<Pattern> patterns = new ArrayList<>();
+
+        /**
+         * Adds a field.
+         *
+         * @param key          key under which the value is reported
+         * @param valuePattern regex applied right after a label; group 1 is the value
+         * @param fieldLabels  label keywords, matched case-insensitively; a space matches any run of whitespace
+         */
+        public Builder field(String key, String valuePattern, String... fieldLabels) {
+            String[] normalized = new String[fieldLabels.length];
+            for (int i = 0; i < fieldLabels.length; i++) {
+                String label = fieldLabels[i].trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+                if (label.isEmpty() || label.length() > LENGTH_MASK) {
+                    throw new IllegalArgumentException("Bad label length: " + fieldLabels[i]);
+                }
+                for (int j = 0; j < label.length(); j++) {
+                    if (label.charAt(j) >= 128) {
+                        throw new IllegalArgumentException("Labels must be ASCII: " + fieldLabels[i]);
+                    }
+                }
+                normalized[i] = label;
+            }
+            keys.add(key);
+            labels.add(normalized);
+            patterns.add(Pattern.compile(valuePattern, Pattern.CASE_INSENSITIVE));
+            return this;
+        }
+
+        public ParameterExtractor build() {
+            return new ParameterExtractor(this);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.meditracker.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.itextpdf.text.io.RandomAccessSource;
+import com.itextpdf.text.io.RandomAccessSourceFactory;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.RandomAccessFileOrArray;
+import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Extracts PDF page text off the main thread. Pages are striped across a worker pool sized to
+ * the device's cores; every worker opens its own {@link PdfReader} because readers are not
+ * thread-safe. Pages are handed to the {@link PageSink} strictly in page order, and progress and
+ * completion are reported on the main thread.
+ */
+public class PdfTextEngine {
+    private static final String TAG = "PdfTextEngine";
+    private static final int WORKER_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private static final ThreadPoolExecutor WORKERS = createWorkers();
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
+
+    /** Receives page text in page order, on a worker thread. */
+    public interface PageSink {
+        /** @return {@code true} to stop reading further pages */
+        boolean onPage(int pageNumber, String text) throws IOException;
+    }
+
+    /** Called on the main thread. Not called at all once the job has been cancelled. */
+    public interface Listener {
+        void onProgress(int pagesDone, int pageCount);
+
+        void onComplete(int pagesRead, int pageCount);
+
+        void onError(Exception e);
+    }
+
+    private static ThreadPoolExecutor createWorkers() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(WORKER_COUNT, WORKER_COUNT,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                r -> new Thread(r, "pdf-text-" + threadNumber.incrementAndGet()));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Opens {@code pdf} through a memory-mapped, channel-backed source in partial mode, so iText
+     * only reads the objects a page actually needs instead of buffering the whole document.
+     */
+    public static PdfReader openReader(File pdf) throws IOException {
+        RandomAccessSource source = new RandomAccessSourceFactory()
+                .setForceRead(false)
+                .createBestSource(pdf.getAbsolutePath());
+        return new PdfReader(new RandomAccessFileOrArray(source), null);
+    }
+
+    public static Job extract(File pdf, PageSink sink, Listener listener) {
+        Job job = new Job(sink, listener);
+        job.track(WORKERS.submit(() -> {
+            try {
+                job.start(pdf);
+            } catch (Exception e) {
+                job.fail(e);
+            }
+        }));
+        return job;
+    }
+
+    public static class Job {
+        private final PageSink sink;
+        private final Listener listener;
+        private final List<Future<?>> futures = new ArrayList<>();
+        private volatile boolean cancelled;
+        private volatile boolean stopped;
+        private boolean finished;
+
+        private String[] pages;
+        private int nextPage;
+        private AtomicInteger pagesDone;
+        private AtomicInteger runningStripes;
+
+        private Job(PageSink sink, Listener listener) {
+            this.sink = sink;
+            this.listener = listener;
+        }
+
+        /** Stops all workers. No listener callbacks are delivered afterwards. */
+        public void cancel() {
+            cancelled = true;
+            synchronized (futures) {
+                for (Future<?> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void track(Future<?> future) {
+            synchronized (futures) {
+                futures.add(future);
+                if (cancelled) {
+                    future.cancel(true);
+                }
+            }
+        }
+
+        private void start(File pdf) throws IOException {
+            PdfReader reader = openReader(pdf);
+            int pageCount;
+            try {
+                pageCount = reader.getNumberOfPages();
+            } finally {
+                reader.close();
+            }
+
+            pages = new String[pageCount + 1];
+            nextPage = 1;
+            pagesDone = new AtomicInteger();
+            int stripes = Math.min(WORKER_COUNT, pageCount);
+            runningStripes = new AtomicInteger(stripes);
+            Log.d(TAG, "Extracting " + pageCount + " pages with " + stripes + " workers");
+
+            if (stripes == 0) {
+                finish(0);
+                return;
+            }
+            for (int stripe = 0; stripe < stripes; stripe++) {
+                int first = stripe + 1;
+                track(WORKERS.submit(() -> runStripe(pdf, first, stripes, pageCount)));
+            }
+        }
+
+        private void runStripe(File pdf, int firstPage, int step, int pageCount) {
+            PdfReader reader = null;
+            try {
+                reader = openReader(pdf);
+                for (int page = firstPage; page <= pageCount && !cancelled && !stopped; page += step) {
+                    pageDone(page, PdfTextExtractor.getTextFromPage(reader, page), pageCount);
+                }
+            } catch (Exception e) {
+                fail(e);
+            } finally {
+                if (reader != null) {
+                    reader.close();
+                }
+                if (runningStripes.decrementAndGet() == 0) {
+                    finish(pageCount);
+                }
+            }
+        }
+
+        // Buffers out-of-order pages and drains the contiguous prefix into the sink
+        private void pageDone(int page, String text, int pageCount) throws IOException {
+            if (stopped) {
+                return;
+            }
+            int done = pagesDone.incrementAndGet();
+            post(() -> listener.onProgress(done, pageCount));
+
+            synchronized (this) {
+                pages[page] = text;
+                while (nextPage <= pageCount && pages[nextPage] != null && !cancelled && !stopped) {
+                    String pageText = pages[nextPage];
+                    pages[nextPage] = null;
+                    boolean stop = sink.onPage(nextPage, pageText);
+                    nextPage++;
+                    if (stop) {
+                        Log.d(TAG, "Sink stopped extraction after page " + (nextPage - 1) + " of " + pageCount);
+                        finish(pageCount);
+                        stopWorkers();
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void stopWorkers() {
+            // Like cancel(), but the completion callback that was just posted still runs
+            stopped = true;
+            synchronized (futures) {
+                for (Future<?> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
+
+        private synchronized void finish(int pageCount) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            int pagesRead = nextPage - 1;
+            post(() -> listener.onComplete(pagesRead, pageCount));
+        }
+
+        private synchronized void fail(Exception e) {
+            if (finished || cancelled) {
+                return;
+            }
+            finished = true;
+            Log.e(TAG, "PDF extraction failed: " + e.getMessage(), e);
+            stopWorkers();
+            post(() -> listener.onError(e));
+        }
+
+        private void post(Runnable callback) {
+            MAIN.post(() -> {
+                if (!cancelled) {
+                    callback.run();
+                }
+            });
+        }
+    }
+}
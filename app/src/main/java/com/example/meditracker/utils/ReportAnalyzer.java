@@ -2,59 +2,155 @@ package com.example.meditracker.utils;
 
 import android.util.Log;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import com.example.meditracker.utils.LabResult.Parameter;
 
 public class ReportAnalyzer {
     private static final String TAG = "ReportAnalyzer";
 
-    public static Map<String, String> extractParameters(String text) {
-        Map<String, String> parameters = new HashMap<>();
-        if (text == null || text.trim().isEmpty()) {
+    // Field indices, in the order the fields are added to FIELDS below
+    private static final int NAME = 0;
+    private static final int EMAIL = 1;
+    private static final int AGE = 2;
+    private static final int BP = 3;
+    private static final int RBC = 4;
+    private static final int WBC = 5;
+    private static final int HEMOGLOBIN = 6;
+    private static final int PLATELETS = 7;
+    private static final int SUGAR = 8;
+    private static final int CHOLESTEROL = 9;
+    private static final int SEX = 10;
+
+    private static final String NUMBER = "\\s*[:\\-]?\\s*([0-9][0-9,]*(?:\\.[0-9]+)?)";
+
+    private static final ParameterExtractor FIELDS = new ParameterExtractor.Builder()
+            .field("name", "\\s*[:\\-]?\\s*([A-Za-z ]+)", "Name", "Patient Name")
+            .field("email", "\\s*[:\\-]?\\s*([\\w._%+-]+@[\\w.-]+\\.[A-Za-z]{2,})", "Email")
+            // A separator is required so that "Page 2" is not read as an age
+            .field("age", "\\s*[:\\-]\\s*(\\d{1,3})", "Age")
+            .field("bp", "\\s*[:\\-]?\\s*(\\d{2,3}\\s*/\\s*\\d{2,3})", "BP", "Blood Pressure")
+            .field("rbc", NUMBER, "RBC", "Red Blood Cells")
+            .field("wbc", NUMBER, "WBC", "White Blood Cells")
+            .field("hemoglobin", NUMBER, "Hemoglobin", "Hgb")
+            .field("platelets", NUMBER, "Platelets")
+            .field("sugar", NUMBER, "Blood Sugar", "Glucose")
+            .field("cholesterol", NUMBER, "Cholesterol", "Total Cholesterol")
+            // Only used to pick reference ranges, so it does not hold up early stopping
+            .field("sex", "\\s*[:\\-]\\s*(male|female|m|f)\\b", "Sex", "Gender")
+            .build();
+
+    // Lab values a report has to yield before page-by-page extraction may stop early
+    private static final String[] LAB_VALUES = {
+            "bp", "rbc", "wbc", "hemoglobin", "platelets", "sugar", "cholesterol"
+    };
+
+    public static LabResult extractParameters(CharSequence text) {
+        Extraction extraction = new Extraction(new String[0]);
+        if (isBlank(text)) {
             Log.w(TAG, "Input text is null or empty");
-            return parameters;
-        }
-
-        // Define regex patterns for health parameters
-        String[] patterns = {
-                "(?:Name|Patient Name):\\s*([A-Za-z\\s]+)", // Name
-                "(?:Age):\\s*(\\d+)", // Age
-                "(?:RBC|Red Blood Cells):\\s*([\\d.]+)\\s*(?:million/uL|\\S+)?", // RBC
-                "(?:WBC|White Blood Cells):\\s*([\\d.]+)\\s*(?:thousand/uL|\\S+)?", // WBC
-                "(?:Hemoglobin|Hgb):\\s*([\\d.]+)\\s*(?:g/dL|\\S+)?", // Hemoglobin
-                "(?:Platelets):\\s*([\\d.]+)\\s*(?:thousand/uL|\\S+)?", // Platelets
-                "(?:Blood Sugar|Glucose):\\s*([\\d.]+)\\s*(?:mg/dL|\\S+)?", // Blood Sugar
-                "(?:Cholesterol|Total Cholesterol):\\s*([\\d.]+)\\s*(?:mg/dL|\\S+)?", // Cholesterol
-                "(?:BP|Blood Pressure):\\s*(\\d+/\\d+)\\s*(?:mmHg|\\S+)?", // Blood Pressure
-        };
-
-        // Corresponding keys for the parameters
-        String[] keys = {
-                "name", "age", "rbc", "wbc", "hemoglobin", "platelets", "sugar", "cholesterol", "bp"
-        };
-
-        // Extract parameters using regex
-        for (int i = 0; i < patterns.length; i++) {
-            Pattern pattern = Pattern.compile(patterns[i], Pattern.CASE_INSENSITIVE);
-            Matcher matcher = pattern.matcher(text);
-            if (matcher.find()) {
-                try {
-                    String value = matcher.group(1).trim();
-                    parameters.put(keys[i], value);
-                    Log.d(TAG, "Extracted " + keys[i] + ": " + value);
-                } catch (Exception e) {
-                    Log.w(TAG, "Error extracting " + keys[i] + ": " + e.getMessage());
-                }
-            }
+            return extraction.result();
         }
 
-        if (parameters.isEmpty()) {
+        extraction.feed(text);
+        LabResult result = extraction.result();
+
+        if (result.isEmpty()) {
             Log.w(TAG, "No parameters extracted from text");
         } else {
-            Log.d(TAG, "Extracted parameters: " + parameters.toString());
+            Log.d(TAG, "Extracted parameters: " + result);
+        }
+        return result;
+    }
+
+    /**
+     * Starts a page-by-page extraction. {@link Extraction#feed} returns {@code true} once all lab
+     * values have been found, so callers can stop reading further pages.
+     */
+    public static Extraction newExtraction() {
+        return new Extraction(LAB_VALUES);
+    }
+
+    public static final class Extraction implements ParameterExtractor.ValueSink {
+        private final LabResult result = new LabResult();
+        private final ParameterExtractor.Session session;
+
+        private Extraction(String[] requiredKeys) {
+            session = FIELDS.newSession(this, requiredKeys);
+        }
+
+        /** @return {@code true} once every lab value has been found */
+        public boolean feed(CharSequence page) {
+            return session.feed(page);
+        }
+
+        public LabResult result() {
+            return result;
+        }
+
+        @Override
+        public void onValue(int field, CharSequence text, int start, int end) {
+            switch (field) {
+                case NAME:
+                    result.setPatientName(text.subSequence(start, end).toString().trim());
+                    break;
+                case EMAIL:
+                    result.setEmail(text.subSequence(start, end).toString());
+                    break;
+                case SEX:
+                    result.setSex(LabResult.Sex.parse(text, start, end));
+                    break;
+                case BP: {
+                    int slash = start;
+                    while (text.charAt(slash) != '/') {
+                        slash++;
+                    }
+                    LabResult.Unit unit = LabResult.Unit.match(text, end, text.length());
+                    result.set(Parameter.BP_SYSTOLIC, LabResult.parseNumber(text, start, slash), unit);
+                    int diastolic = slash + 1;
+                    while (Character.isWhitespace(text.charAt(diastolic))) {
+                        diastolic++;
+                    }
+                    result.set(Parameter.BP_DIASTOLIC, LabResult.parseNumber(text, diastolic, end), unit);
+                    break;
+                }
+                default:
+                    Parameter parameter = parameterFor(field);
+                    result.set(parameter, LabResult.parseNumber(text, start, end),
+                            LabResult.Unit.match(text, end, text.length()));
+            }
+        }
+
+        private static Parameter parameterFor(int field) {
+            switch (field) {
+                case AGE:
+                    return Parameter.AGE;
+                case RBC:
+                    return Parameter.RBC;
+                case WBC:
+                    return Parameter.WBC;
+                case HEMOGLOBIN:
+                    return Parameter.HEMOGLOBIN;
+                case PLATELETS:
+                    return Parameter.PLATELETS;
+                case SUGAR:
+                    return Parameter.SUGAR;
+                case CHOLESTEROL:
+                    return Parameter.CHOLESTEROL;
+                default:
+                    throw new IllegalArgumentException("Unknown field " + field);
+            }
+        }
+    }
+
+    // Same as text.trim().isEmpty() without copying long report text
+    private static boolean isBlank(CharSequence text) {
+        if (text == null) {
+            return true;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > ' ') {
+                return false;
+            }
         }
-        return parameters;
+        return true;
     }
-}
\ No newline at end of file
+}
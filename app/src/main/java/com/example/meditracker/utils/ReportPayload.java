@@ -0,0 +1,60 @@
+package com.example.meditracker.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * One report as a webhook JSON object: the caller's extra fields, the lab values and, when a
+ * text file is given, the raw report text as {@code report_text}. The text is streamed from its
+ * file while the payload is written, so long reports are never loaded into memory.
+ *
+ * <p>Lab values are keyed by field name ({@code rbc}, {@code bp}, ...) unless the payload is
+ * created {@link #labelled labelled}, in which case they use the summary table labels.
+ */
+public class ReportPayload implements GzipJsonBody.Source {
+    private final LabResult result;
+    private final Map<String, String> extraFields;
+    private final File reportText;
+    private final boolean byLabel;
+
+    public ReportPayload(LabResult result, Map<String, String> extraFields, File reportText) {
+        this(result, extraFields, reportText, false);
+    }
+
+    private ReportPayload(LabResult result, Map<String, String> extraFields, File reportText, boolean byLabel) {
+        this.result = result;
+        this.extraFields = extraFields;
+        this.reportText = reportText;
+        this.byLabel = byLabel;
+    }
+
+    /** A payload keyed by summary table label, as the summary webhook expects. */
+    public static ReportPayload labelled(LabResult result, Map<String, String> extraFields, File reportText) {
+        return new ReportPayload(result, extraFields, reportText, true);
+    }
+
+    @Override
+    public void writeTo(Writer out) throws IOException {
+        out.write('{');
+        boolean first = byLabel
+                ? result.writeLabelledJsonFields(out, extraFields, true)
+                : result.writeJsonFields(out, extraFields, true);
+        if (reportText != null && reportText.isFile()) {
+            if (!first) {
+                out.write(',');
+            }
+            JsonText.writeQuoted(out, "report_text");
+            out.write(':');
+            try (Reader in = new InputStreamReader(new FileInputStream(reportText), StandardCharsets.UTF_8)) {
+                JsonText.writeQuoted(out, in);
+            }
+        }
+        out.write('}');
+    }
+}
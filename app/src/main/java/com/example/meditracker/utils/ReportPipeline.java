@@ -0,0 +1,239 @@
+package com.example.meditracker.utils;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.example.meditracker.ParcelFileDescriptorUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Upload-and-analyze in one pass over the report's bytes. A picked or captured report is staged
+ * once; text extraction (or the extraction cache) and the upload, queued in the app-scoped
+ * {@link UploadQueue}, then run side by side on that staged copy, so a report is ready after
+ * about max(upload, extraction) rather than their sum. Runs are kept by content hash, so the
+ * Analyze screen can pick up a run the Upload screen started instead of asking for the file again.
+ */
+public class ReportPipeline {
+    private static final String TAG = "ReportPipeline";
+
+    // Only the latest few runs can still be opened on the Analyze screen
+    private static final int MAX_RUNS = 8;
+
+    private static ReportPipeline instance;
+
+    private final Context appContext;
+    private final ExecutorService ioExecutor;
+    private final Map<String, Run> runs = new LinkedHashMap<String, Run>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Run> eldest) {
+            return size() > MAX_RUNS;
+        }
+    };
+
+    /** Called on the main thread as pages of a PDF are read. */
+    public interface ProgressListener {
+        void onPages(int pagesDone, int pageCount);
+    }
+
+    /** One report going through the pipeline. The extraction completes on a background thread. */
+    public static class Run {
+        public final String contentHash;
+        public final String fileType;
+        public final CompletableFuture<ExtractionCache.Entry> extraction = new CompletableFuture<>();
+        /** The report's job in the {@link UploadQueue}. */
+        public final UploadQueue.Job upload;
+        final File staged;
+        @Nullable
+        final ProgressListener progress;
+
+        Run(String contentHash, String fileType, File staged, UploadQueue.Job upload,
+            @Nullable ProgressListener progress) {
+            this.contentHash = contentHash;
+            this.fileType = fileType;
+            this.staged = staged;
+            this.upload = upload;
+            this.progress = progress;
+        }
+
+        boolean isPdf() {
+            return "pdf".equals(fileType);
+        }
+    }
+
+    public static synchronized ReportPipeline getInstance(Context context) {
+        if (instance == null) {
+            instance = new ReportPipeline(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ReportPipeline(Context appContext) {
+        this.appContext = appContext;
+        ioExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "pipeline-io"));
+    }
+
+    /**
+     * Stages {@code uri} in the background, then starts extraction and queues the upload on the
+     * staged copy. Nothing here is tied to the calling screen, so the report is uploaded and
+     * recorded even if that screen goes away.
+     *
+     * @param fileType {@code pdf} or {@code image}
+     * @param name     name the report is recorded under
+     */
+    public CompletableFuture<Run> start(Uri uri, String fileType, String name, String userId) {
+        return start(uri, fileType, name, userId, null);
+    }
+
+    /** Like {@link #start(Uri, String, String, String)}, reporting page progress of a PDF. */
+    public CompletableFuture<Run> start(Uri uri, String fileType, String name, String userId,
+                                        @Nullable ProgressListener progress) {
+        CompletableFuture<Run> started = new CompletableFuture<>();
+        ioExecutor.execute(() -> {
+            long start = SystemClock.elapsedRealtime();
+            File staged;
+            String hash;
+            try {
+                staged = ParcelFileDescriptorUtil.stageFile(appContext, uri);
+                hash = ParcelFileDescriptorUtil.contentHash(staged);
+            } catch (IOException | RuntimeException e) {
+                started.completeExceptionally(e);
+                return;
+            }
+            long stagedAt = SystemClock.elapsedRealtime();
+            Log.d(TAG, "Staged " + hash + " in " + (stagedAt - start) + " ms");
+
+            UploadQueue.Job job = UploadQueue.getInstance(appContext).enqueue(staged, hash, fileType, name, userId);
+            Run run = new Run(hash, fileType, staged, job, progress);
+            synchronized (runs) {
+                runs.put(run.contentHash, run);
+            }
+            extract(run);
+            run.extraction.whenComplete((entry, e) -> logStep(run, "Extraction", stagedAt, e));
+            job.result.whenComplete((url, e) -> logStep(run, "Upload", stagedAt, e));
+            started.complete(run);
+        });
+        return started;
+    }
+
+    /** Returns the run for a report, or {@code null} once it has been dropped. */
+    @Nullable
+    public Run find(String contentHash) {
+        synchronized (runs) {
+            return contentHash != null ? runs.get(contentHash) : null;
+        }
+    }
+
+    private void extract(Run run) {
+        ExtractionCache.Entry cached = ExtractionCache.getInstance(appContext).get(run.contentHash);
+        if (cached != null) {
+            run.extraction.complete(cached);
+        } else if (run.isPdf()) {
+            extractPdf(run);
+        } else {
+            extractImage(run);
+        }
+    }
+
+    private void extractPdf(Run run) {
+        ExtractedTextStore.Spill spill;
+        try {
+            spill = ExtractedTextStore.create(appContext);
+        } catch (IOException e) {
+            run.extraction.completeExceptionally(e);
+            return;
+        }
+        ReportAnalyzer.Extraction extraction = ReportAnalyzer.newExtraction();
+        PdfTextEngine.extract(run.staged, spillingPages(spill, extraction), new PdfTextEngine.Listener() {
+            @Override
+            public void onProgress(int pagesDone, int pageCount) {
+                if (run.progress != null) {
+                    run.progress.onPages(pagesDone, pageCount);
+                }
+            }
+
+            @Override
+            public void onComplete(int pagesRead, int pageCount) {
+                Log.d(TAG, "Read " + pagesRead + " of " + pageCount + " pages of " + run.contentHash);
+                ioExecutor.execute(() -> {
+                    try {
+                        spill.close();
+                        run.extraction.complete(ExtractionCache.getInstance(appContext)
+                                .put(run.contentHash, extraction.result(), spill.getFile()));
+                    } catch (IOException e) {
+                        Log.w(TAG, "Could not cache extraction result: " + e.getMessage());
+                        run.extraction.complete(new ExtractionCache.Entry(run.contentHash, extraction.result(), spill.getFile()));
+                    }
+                });
+            }
+
+            @Override
+            public void onError(Exception e) {
+                closeQuietly(spill);
+                run.extraction.completeExceptionally(new IOException("Failed to extract text from PDF", e));
+            }
+        });
+    }
+
+    /**
+     * Page sink for {@link PdfTextEngine} that spills each page's text and feeds it to
+     * {@code extraction}, stopping once every lab value has been found.
+     */
+    public static PdfTextEngine.PageSink spillingPages(ExtractedTextStore.Spill spill,
+                                                       ReportAnalyzer.Extraction extraction) {
+        return (pageNumber, pageText) -> {
+            spill.appendPage(pageText);
+            return extraction.feed(pageText);
+        };
+    }
+
+    /** OCR parser that spills the recognized text, extracts its parameters and caches both. */
+    public static OcrEngine.Parser<ExtractionCache.Entry> cachingParser(Context appContext, String contentHash) {
+        return text -> {
+            File textFile;
+            try (ExtractedTextStore.Spill spill = ExtractedTextStore.create(appContext)) {
+                spill.appendPage(text);
+                textFile = spill.getFile();
+            }
+            return ExtractionCache.getInstance(appContext).put(contentHash, ReportAnalyzer.extractParameters(text), textFile);
+        };
+    }
+
+    private void extractImage(Run run) {
+        OcrEngine.getInstance().recognize(run.staged, cachingParser(appContext, run.contentHash),
+                new OcrEngine.Callback<ExtractionCache.Entry>() {
+                @Override
+                public void onSuccess(ExtractionCache.Entry result, OcrEngine.Timings timings) {
+                    run.extraction.complete(result);
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    run.extraction.completeExceptionally(e);
+                }
+            });
+    }
+
+    private static void logStep(Run run, String step, long stagedAt, Throwable error) {
+        Log.d(TAG, step + " of " + run.contentHash + (error != null ? " failed" : " finished")
+                + " " + (SystemClock.elapsedRealtime() - stagedAt) + " ms after staging");
+    }
+
+    private static void closeQuietly(ExtractedTextStore.Spill spill) {
+        try {
+            spill.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not close spilled text: " + e.getMessage());
+        }
+    }
+}
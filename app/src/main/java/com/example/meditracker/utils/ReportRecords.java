@@ -0,0 +1,79 @@
+package com.example.meditracker.utils;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/** Writes uploaded report entries under users/{uid}/reports. */
+public class ReportRecords {
+    private static final String TAG = "ReportRecords";
+
+    // A slow lookup should not hold up the upload it was meant to save
+    private static final long LOOKUP_TIMEOUT_MS = 5000;
+
+    /**
+     * @param contentHash hash of the staged file, so a later upload of the same file can reuse
+     *                    this entry's URL; may be {@code null}
+     */
+    public static Task<DocumentReference> add(FirebaseFirestore firestore, String userId, String name,
+                                              String url, String timestamp, String fileType,
+                                              @Nullable String contentHash) {
+        Map<String, Object> reportData = new HashMap<>();
+        reportData.put("name", name);
+        reportData.put("url", url);
+        reportData.put("timestamp", timestamp);
+        reportData.put("fileType", fileType);
+        if (contentHash != null) {
+            reportData.put("contentHash", contentHash);
+        }
+
+        return reports(firestore, userId).add(reportData);
+    }
+
+    /**
+     * Returns the URL of the user's report with the same content, or {@code null} if there is
+     * none. Reports recorded before content hashes were stored never match. A lookup that fails
+     * or times out also returns {@code null}, so the caller simply uploads. Blocks, so call it off
+     * the main thread.
+     */
+    @Nullable
+    public static String findUrl(FirebaseFirestore firestore, String userId, String contentHash) {
+        QuerySnapshot matches;
+        try {
+            matches = Tasks.await(reports(firestore, userId)
+                    .whereEqualTo("contentHash", contentHash)
+                    .limit(1)
+                    .get(), LOOKUP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException e) {
+            Log.w(TAG, "Could not look up earlier uploads: " + e.getMessage());
+            return null;
+        }
+        if (matches.isEmpty()) {
+            return null;
+        }
+        String url = matches.getDocuments().get(0).getString("url");
+        return url != null && !url.isEmpty() ? url : null;
+    }
+
+    private static CollectionReference reports(FirebaseFirestore firestore, String userId) {
+        return firestore.collection("users")
+                .document(userId)
+                .collection("reports");
+    }
+}
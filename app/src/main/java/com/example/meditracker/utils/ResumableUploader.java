@@ -0,0 +1,320 @@
+package com.example.meditracker.utils;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+
+/**
+ * Uploads a file to Cloudinary in fixed-size parts using its chunked upload protocol: every part
+ * is posted with the same {@code X-Unique-Upload-Id} and a {@code Content-Range}, and the answer
+ * to the last part carries the URL. After each acknowledged part the offset is written to a small
+ * state file, so an upload cut off by a dropped connection or an app restart carries on from the
+ * last acknowledged part when the same file is uploaded again. Uploads block, so call them off
+ * the main thread.
+ */
+public class ResumableUploader {
+    private static final String TAG = "ResumableUploader";
+    private static final String SUFFIX = ".upload";
+
+    // Cloudinary's minimum part size is 5 MB; only the last part may be smaller
+    static final int DEFAULT_CHUNK_SIZE = 6 * 1024 * 1024;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long DEFAULT_RETRY_DELAY_MS = 2000;
+    // Cloudinary drops unfinished uploads after a while, so older state starts over
+    private static final long STATE_MAX_AGE_MS = 24 * 60 * 60_000L;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private static final MediaType OCTET_STREAM = MediaType.get("application/octet-stream");
+
+    /** The server refused the upload as a whole; sending it again unchanged would not help. */
+    public static class UploadRejectedException extends IOException {
+        /** HTTP status of the refusal. */
+        public final int code;
+
+        UploadRejectedException(String message, int code) {
+            super(message);
+            this.code = code;
+        }
+    }
+
+    public interface ProgressListener {
+        /** Called on the uploading thread after each acknowledged part, and once on resume. */
+        void onProgress(long bytesUploaded, long totalBytes);
+    }
+
+    private final File stateDir;
+    private final OkHttpClient client;
+    private final HttpUrl baseUrl;
+    private final String apiKey;
+    private final String apiSecret;
+    private final int chunkSize;
+    private final long retryDelayMs;
+
+    // Where an unfinished upload of one file stands
+    private static final class State {
+        String uploadId;
+        String resourceType;
+        long totalBytes;
+        long acknowledgedBytes;
+    }
+
+    /**
+     * @param baseUrl Cloudinary API base of the cloud, e.g. {@code https://api.cloudinary.com/v1_1/<cloud>/};
+     *                parts are posted to {@code <resource type>/upload} below it
+     */
+    public ResumableUploader(File stateDir, OkHttpClient client, HttpUrl baseUrl, String apiKey, String apiSecret) {
+        this(stateDir, client, baseUrl, apiKey, apiSecret, DEFAULT_CHUNK_SIZE, DEFAULT_RETRY_DELAY_MS);
+    }
+
+    ResumableUploader(File stateDir, OkHttpClient client, HttpUrl baseUrl, String apiKey, String apiSecret,
+                      int chunkSize, long retryDelayMs) {
+        this.stateDir = stateDir;
+        this.client = client;
+        this.baseUrl = baseUrl;
+        this.apiKey = apiKey;
+        this.apiSecret = apiSecret;
+        this.chunkSize = chunkSize;
+        this.retryDelayMs = retryDelayMs;
+    }
+
+    /**
+     * Uploads {@code file} and returns its secure URL.
+     *
+     * @throws UploadRejectedException if the server refused the upload; its resume point is
+     *                                 discarded
+     *
+     * @param key          stable name of the file's content, e.g. its content hash; an unfinished
+     *                     upload under the same key is resumed
+     * @param resourceType Cloudinary resource type: {@code image} or {@code raw}
+     */
+    public String upload(File file, String key, String resourceType, @Nullable ProgressListener listener)
+            throws IOException {
+        long total = file.length();
+        if (total == 0) {
+            throw new IOException("Nothing to upload, " + file.getName() + " is empty");
+        }
+        File stateFile = new File(stateDir, key + SUFFIX);
+        State state = readState(stateFile);
+        if (state == null || state.totalBytes != total || !resourceType.equals(state.resourceType)) {
+            state = new State();
+            state.uploadId = UUID.randomUUID().toString().replace("-", "");
+            state.resourceType = resourceType;
+            state.totalBytes = total;
+        } else {
+            Log.d(TAG, "Resuming " + key + " at " + state.acknowledgedBytes + " of " + total + " bytes");
+        }
+        if (listener != null) {
+            listener.onProgress(state.acknowledgedBytes, total);
+        }
+
+        HttpUrl url = baseUrl.newBuilder().addPathSegment(resourceType).addPathSegment("upload").build();
+        while (true) {
+            long start = state.acknowledgedBytes;
+            long end = Math.min(start + chunkSize, total);
+            JSONObject answer;
+            try {
+                answer = sendPart(url, file, state, start, end);
+            } catch (UploadRejectedException e) {
+                // The server is done with this upload id, so a later attempt has to start over
+                deleteState(stateFile);
+                throw e;
+            }
+            if (end == total) {
+                deleteState(stateFile);
+                String secureUrl = answer.optString("secure_url", "");
+                if (secureUrl == null || secureUrl.isEmpty()) {
+                    throw new IOException("Upload returned no URL");
+                }
+                return secureUrl;
+            }
+            state.acknowledgedBytes = end;
+            writeState(stateFile, state);
+            if (listener != null) {
+                listener.onProgress(end, total);
+            }
+        }
+    }
+
+    // Posts [start, end) of the file, retrying dropped connections and server errors a few times
+    private JSONObject sendPart(HttpUrl url, File file, State state, long start, long end) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            String timestamp = Long.toString(System.currentTimeMillis() / 1000);
+            RequestBody body = new MultipartBody.Builder()
+                    .setType(MultipartBody.FORM)
+                    .addFormDataPart("api_key", apiKey)
+                    .addFormDataPart("timestamp", timestamp)
+                    .addFormDataPart("signature", sign("timestamp=" + timestamp))
+                    .addFormDataPart("file", file.getName(), fileRegion(file, start, end - start))
+                    .build();
+            Request request = new Request.Builder()
+                    .url(url)
+                    .header("X-Unique-Upload-Id", state.uploadId)
+                    .header("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + state.totalBytes)
+                    .post(body)
+                    .build();
+
+            int code;
+            String text;
+            try (Response response = client.newCall(request).execute()) {
+                ResponseBody responseBody = response.body();
+                code = response.code();
+                text = responseBody != null ? responseBody.string() : "";
+            } catch (IOException e) {
+                // Dropped connection or timeout; the part is sent again
+                code = -1;
+                text = e.getMessage();
+            }
+            if (code >= 200 && code < 300) {
+                try {
+                    return text.isEmpty() ? new JSONObject() : new JSONObject(text);
+                } catch (JSONException e) {
+                    throw new IOException("Unreadable upload response: " + e.getMessage());
+                }
+            }
+            String message = code == -1 ? text : "HTTP " + code + (text.isEmpty() ? "" : ": " + text);
+            if (code != -1 && !WebhookOutbox.isRetryable(code)) {
+                // The upload as a whole was refused; sending the part again would not help
+                throw new UploadRejectedException("Upload rejected, " + message, code);
+            }
+            if (attempt >= MAX_ATTEMPTS) {
+                throw new IOException("Upload interrupted at " + start + " of " + state.totalBytes
+                        + " bytes: " + message);
+            }
+            Log.w(TAG, "Part at " + start + " failed (" + message + "), attempt " + attempt + " of " + MAX_ATTEMPTS);
+            try {
+                Thread.sleep(retryDelayMs << (attempt - 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Upload interrupted", e);
+            }
+        }
+    }
+
+    private String sign(String params) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return ContentHash.toHex(digest.digest((params + apiSecret).getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    // Streams one part straight from the file instead of loading it into memory
+    private static RequestBody fileRegion(File file, long offset, long length) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return OCTET_STREAM;
+            }
+
+            @Override
+            public long contentLength() {
+                return length;
+            }
+
+            @Override
+            public void writeTo(@NonNull BufferedSink sink) throws IOException {
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                    in.seek(offset);
+                    long left = length;
+                    while (left > 0) {
+                        int n = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+                        if (n < 0) {
+                            throw new EOFException(file.getName() + " shrank during upload");
+                        }
+                        sink.write(buffer, 0, n);
+                        left -= n;
+                    }
+                }
+            }
+        };
+    }
+
+    // Four lines: upload id, resource type, total bytes, acknowledged bytes
+    @Nullable
+    private static State readState(File stateFile) {
+        if (!stateFile.isFile()) {
+            return null;
+        }
+        if (System.currentTimeMillis() - stateFile.lastModified() > STATE_MAX_AGE_MS) {
+            Log.d(TAG, "Discarding stale upload state " + stateFile.getName());
+            stateFile.delete();
+            return null;
+        }
+        try (BufferedReader in = new BufferedReader(new FileReader(stateFile))) {
+            State state = new State();
+            state.uploadId = in.readLine();
+            state.resourceType = in.readLine();
+            state.totalBytes = Long.parseLong(in.readLine());
+            state.acknowledgedBytes = Long.parseLong(in.readLine());
+            if (state.uploadId == null || state.acknowledgedBytes < 0 || state.acknowledgedBytes >= state.totalBytes) {
+                throw new IOException("Inconsistent state");
+            }
+            return state;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Dropping unreadable upload state " + stateFile.getName() + ": " + e.getMessage());
+            stateFile.delete();
+            return null;
+        }
+    }
+
+    // Written to a temporary file and renamed, so a crash never leaves half a state file behind
+    private void writeState(File stateFile, State state) {
+        if (!stateDir.isDirectory() && !stateDir.mkdirs()) {
+            Log.w(TAG, "Could not create " + stateDir);
+            return;
+        }
+        File temp = new File(stateDir, stateFile.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            writer.write(state.uploadId + "\n" + state.resourceType + "\n"
+                    + state.totalBytes + "\n" + state.acknowledgedBytes + "\n");
+            writer.flush();
+            out.getFD().sync();
+        } catch (IOException e) {
+            // Only costs a resume point; the upload itself carries on
+            Log.w(TAG, "Could not save upload state: " + e.getMessage());
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(stateFile)) {
+            Log.w(TAG, "Could not save upload state to " + stateFile);
+            temp.delete();
+        }
+    }
+
+    private static void deleteState(File stateFile) {
+        if (stateFile.exists() && !stateFile.delete()) {
+            Log.w(TAG, "Could not delete " + stateFile);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.meditracker.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * Process-wide OkHttp client. Every webhook caller shares one connection pool and one
+ * dispatcher, so a connection and its TLS session opened for one analysis are reused by the
+ * next one instead of being set up again. Use {@link okhttp3.Call#enqueue} to run calls on the
+ * dispatcher's threads. Every call is timed by {@link NetworkMetrics}.
+ */
+public class SharedHttpClient {
+    // Webhooks go to one or two hosts; a few idle connections cover batch runs
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+    private static final int MAX_REQUESTS = 16;
+    private static final int MAX_REQUESTS_PER_HOST = 8;
+
+    private static OkHttpClient client;
+    private static OkHttpClient slowClient;
+
+    public static synchronized OkHttpClient get() {
+        if (client == null) {
+            Dispatcher dispatcher = new Dispatcher();
+            dispatcher.setMaxRequests(MAX_REQUESTS);
+            dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+            client = new OkHttpClient.Builder()
+                    .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                    .dispatcher(dispatcher)
+                    .eventListenerFactory(NetworkMetrics.getInstance().eventListenerFactory())
+                    .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                    .retryOnConnectionFailure(true)
+                    .connectTimeout(15, TimeUnit.SECONDS)
+                    .readTimeout(30, TimeUnit.SECONDS)
+                    .writeTimeout(30, TimeUnit.SECONDS)
+                    .build();
+        }
+        return client;
+    }
+
+    /**
+     * Same pool and dispatcher as {@link #get()}, with timeouts long enough for webhook flows
+     * that wait on a language model before answering.
+     */
+    public static synchronized OkHttpClient forSlowResponses() {
+        if (slowClient == null) {
+            slowClient = get().newBuilder()
+                    .callTimeout(5, TimeUnit.MINUTES)
+                    .connectTimeout(1, TimeUnit.MINUTES)
+                    .readTimeout(5, TimeUnit.MINUTES)
+                    .writeTimeout(5, TimeUnit.MINUTES)
+                    .build();
+        }
+        return slowClient;
+    }
+}
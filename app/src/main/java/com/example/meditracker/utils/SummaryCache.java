@@ -0,0 +1,246 @@
+package com.example.meditracker.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Disk-backed cache of AI summaries, keyed by {@link LabResult#fingerprint}, so re-opening a
+ * report shows its summary at once instead of posting to the webhook again. Entries older than
+ * the TTL are never served; entries older than the revalidation age are served and also
+ * refreshed in the background. Least recently used entries are evicted once the cache grows
+ * past its size bound.
+ */
+public class SummaryCache {
+    private static final String TAG = "SummaryCache";
+    private static final String DIR_NAME = "summaries";
+    private static final String SUFFIX = ".sum";
+    private static final String PENDING_SUFFIX = ".pending";
+    private static final int FORMAT_VERSION = 1;
+
+    private static final long DEFAULT_TTL_MS = 7 * 24 * 60 * 60_000L;
+    private static final long DEFAULT_REVALIDATE_AFTER_MS = 24 * 60 * 60_000L;
+    private static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+
+    private static SummaryCache instance;
+
+    private final File dir;
+    private long ttlMs = DEFAULT_TTL_MS;
+    private long revalidateAfterMs = DEFAULT_REVALIDATE_AFTER_MS;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+
+    // Caches summaries the outbox delivers after the screen that asked for them has gone
+    private final WebhookOutbox.Listener deliveries = new WebhookOutbox.Listener() {
+        @Override
+        public void onDelivered(String key, String responseBody) {
+            String fingerprint = takePending(key);
+            if (fingerprint != null) {
+                put(fingerprint, parseSummary(responseBody));
+            }
+        }
+
+        @Override
+        public void onRetryScheduled(String key, int attempts, long delayMs) {
+        }
+
+        @Override
+        public void onDropped(String key, String reason) {
+            takePending(key);
+        }
+    };
+
+    public static class Entry {
+        public final String summary;
+        public final long storedAt;
+        /** Old enough that a fresh summary should be fetched in the background. */
+        public final boolean needsRevalidation;
+
+        Entry(String summary, long storedAt, boolean needsRevalidation) {
+            this.summary = summary;
+            this.storedAt = storedAt;
+            this.needsRevalidation = needsRevalidation;
+        }
+    }
+
+    public static synchronized SummaryCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new SummaryCache(new File(context.getApplicationContext().getCacheDir(), DIR_NAME));
+            WebhookOutbox.getInstance(context).addListener(instance.deliveries);
+        }
+        return instance;
+    }
+
+    private SummaryCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @param ttlMs             entries older than this are discarded
+     * @param revalidateAfterMs entries older than this are refreshed after being shown; a
+     *                          negative value turns revalidation off
+     * @param maxBytes          size bound for all entries together
+     */
+    public synchronized void configure(long ttlMs, long revalidateAfterMs, long maxBytes) {
+        this.ttlMs = ttlMs;
+        this.revalidateAfterMs = revalidateAfterMs;
+        this.maxBytes = maxBytes;
+        evict(null);
+    }
+
+    /** Returns the cached summary for {@code fingerprint}, or {@code null}. Call off the main thread. */
+    public synchronized Entry get(String fingerprint) {
+        if (fingerprint == null) {
+            return null;
+        }
+        File file = file(fingerprint);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                file.delete();
+                return null;
+            }
+            long now = System.currentTimeMillis();
+            long storedAt = in.readLong();
+            long age = now - storedAt;
+            if (age > ttlMs) {
+                Log.d(TAG, "Expired summary for " + fingerprint);
+                file.delete();
+                return null;
+            }
+            byte[] text = new byte[in.readInt()];
+            in.readFully(text);
+
+            file.setLastModified(now);
+            Log.d(TAG, "Cache hit for " + fingerprint + ", " + age / 1000 + " s old");
+            return new Entry(new String(text, StandardCharsets.UTF_8), storedAt,
+                    revalidateAfterMs >= 0 && age > revalidateAfterMs);
+        } catch (IOException e) {
+            Log.w(TAG, "Dropping unreadable summary " + fingerprint + ": " + e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Stores a summary. Failures are only logged, since the cache is an optimisation. Call off the
+     * main thread.
+     */
+    public synchronized void put(String fingerprint, String summary) {
+        if (fingerprint == null || summary == null || summary.isEmpty()) {
+            return;
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "Could not create " + dir);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        byte[] text = summary.getBytes(StandardCharsets.UTF_8);
+        File file = file(fingerprint);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(now);
+            out.writeInt(text.length);
+            out.write(text);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not cache summary " + fingerprint + ": " + e.getMessage());
+            file.delete();
+            return;
+        }
+        file.setLastModified(now);
+        evict(fingerprint);
+    }
+
+    /**
+     * Remembers that the summary request sent under {@code key} was left to the outbox, so its
+     * answer is cached under {@code fingerprint} once delivered. Call off the main thread.
+     */
+    public synchronized void expect(String key, String fingerprint) {
+        if (key == null || fingerprint == null) {
+            return;
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "Could not create " + dir);
+            return;
+        }
+        try (FileOutputStream out = new FileOutputStream(new File(dir, key + PENDING_SUFFIX))) {
+            out.write(fingerprint.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.w(TAG, "Could not remember summary request " + key + ": " + e.getMessage());
+        }
+    }
+
+    // Returns and forgets the fingerprint a queued request was sent for, or null
+    private synchronized String takePending(String key) {
+        File file = new File(dir, key + PENDING_SUFFIX);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            byte[] fingerprint = new byte[(int) file.length()];
+            in.readFully(fingerprint);
+            return new String(fingerprint, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read summary request " + key + ": " + e.getMessage());
+            return null;
+        } finally {
+            file.delete();
+        }
+    }
+
+    /** The summary in a webhook's JSON answer, or an empty string. */
+    public static String parseSummary(String responseBody) {
+        try {
+            return new JSONObject(responseBody).optString("summary", "");
+        } catch (JSONException e) {
+            return "";
+        }
+    }
+
+    private File file(String fingerprint) {
+        return new File(dir, fingerprint + SUFFIX);
+    }
+
+    // Deletes least recently used entries until the cache fits its size bound
+    private void evict(String keepFingerprint) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        String keep = keepFingerprint != null ? keepFingerprint + SUFFIX : null;
+        for (File file : files) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (file.getName().equals(keep)) {
+                continue;
+            }
+            total -= file.length();
+            file.delete();
+            Log.d(TAG, "Evicted summary " + file.getName());
+        }
+    }
+}
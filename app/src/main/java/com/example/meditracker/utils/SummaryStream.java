@@ -0,0 +1,111 @@
+package com.example.meditracker.utils;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+
+/**
+ * Reads a summary response while it is still arriving. With server-sent events every event's
+ * data is one piece of the summary; a plain-text body is passed on chunk by chunk as it comes off
+ * the connection. Other responses, such as a single JSON object, are not streamed.
+ */
+public class SummaryStream {
+    public static final String ACCEPT = "text/event-stream, text/plain;q=0.9, application/json;q=0.8";
+
+    // Some servers close an event stream with this instead of just ending it
+    private static final String DONE = "[DONE]";
+
+    /** Called on the reading thread each time summary text arrives. */
+    public interface Listener {
+        void onText(String chunk, String soFar);
+    }
+
+    private final long startNanos;
+    private final StringBuilder text = new StringBuilder();
+    private long firstTextNanos = -1;
+
+    /** @param startNanos {@link System#nanoTime()} when the request was sent */
+    public SummaryStream(long startNanos) {
+        this.startNanos = startNanos;
+    }
+
+    public static boolean isStreaming(ResponseBody body) {
+        MediaType type = body.contentType();
+        return type != null && type.type().equals("text")
+                && (type.subtype().equals("event-stream") || type.subtype().equals("plain"));
+    }
+
+    /** Reads the whole body, reporting text as it arrives, and returns the full summary. */
+    public String read(ResponseBody body, Listener listener) throws IOException {
+        MediaType type = body.contentType();
+        if (type != null && type.subtype().equals("event-stream")) {
+            readEvents(body.source(), listener);
+        } else {
+            Charset charset = type != null ? type.charset(StandardCharsets.UTF_8) : StandardCharsets.UTF_8;
+            readChunks(new InputStreamReader(body.byteStream(), charset), listener);
+        }
+        return text.toString();
+    }
+
+    /** Milliseconds from sending the request to the first piece of text, or -1 if none came. */
+    public long timeToFirstTextMs() {
+        return firstTextNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(firstTextNanos - startNanos);
+    }
+
+    private void readEvents(BufferedSource source, Listener listener) throws IOException {
+        StringBuilder data = new StringBuilder();
+        boolean hasData = false;
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            if (line.isEmpty()) {
+                // A blank line ends the event
+                if (hasData && !DONE.contentEquals(data)) {
+                    emit(data.toString(), listener);
+                }
+                data.setLength(0);
+                hasData = false;
+            } else if (line.startsWith("data:")) {
+                if (hasData) {
+                    data.append('\n');
+                }
+                int start = line.startsWith("data: ") ? 6 : 5;
+                data.append(line, start, line.length());
+                hasData = true;
+            }
+            // Comments, event names, ids and retry hints carry no summary text
+        }
+        if (hasData && !DONE.contentEquals(data)) {
+            emit(data.toString(), listener);
+        }
+    }
+
+    // An InputStreamReader hands back whatever has been decoded so far instead of waiting to
+    // fill the buffer, and keeps multi-byte characters that straddle two chunks intact
+    private void readChunks(Reader in, Listener listener) throws IOException {
+        char[] buffer = new char[2048];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+            if (len > 0) {
+                emit(new String(buffer, 0, len), listener);
+            }
+        }
+    }
+
+    private void emit(String chunk, Listener listener) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        if (firstTextNanos < 0) {
+            firstTextNanos = System.nanoTime();
+        }
+        text.append(chunk);
+        listener.onText(chunk, text.toString());
+    }
+}
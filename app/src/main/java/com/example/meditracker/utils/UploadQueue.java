@@ -0,0 +1,550 @@
+package com.example.meditracker.utils;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * App-scoped queue of report uploads. Each job uploads a staged report to Cloudinary (or reuses
+ * the URL of an earlier upload of the same file) and records it in the user's Firestore reports.
+ * The queue keeps its own link to each report's bytes next to the job files, because the staging
+ * cache may evict its copy, and Android may clear the cache dir, before the report is recorded.
+ * Jobs are written to a small file before they start and removed once recorded, so uploads cut
+ * off by process death carry on, from the last acknowledged part, the next time the app starts or
+ * the network comes back. Once the file is up its URL is written to the job as well, so a job that
+ * fails after that only repeats the Firestore record. Jobs run independently of any screen;
+ * screens only observe them, and progress is shown as a notification.
+ */
+public class UploadQueue {
+    private static final String TAG = "UploadQueue";
+    private static final String DIR_NAME = "upload_queue";
+    private static final String SUFFIX = ".job";
+    private static final String CHANNEL_ID = "ReportUploadChannel";
+
+    // Uploads share the uplink, so more in parallel would only slow each one down
+    private static final int MAX_PARALLEL_UPLOADS = 2;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final int MAX_JOBS = 16;
+
+    private static UploadQueue instance;
+
+    public enum State {
+        QUEUED("Queued"),
+        UPLOADING("Uploading"),
+        RECORDING("Saving"),
+        DONE("Uploaded"),
+        FAILED("Failed");
+
+        public final String label;
+
+        State(String label) {
+            this.label = label;
+        }
+
+        public boolean isFinished() {
+            return this == DONE || this == FAILED;
+        }
+    }
+
+    /**
+     * One report upload, keyed by the user and the staged file's content hash. Fields are written
+     * by upload threads.
+     */
+    public static class Job {
+        public final String key;
+        public final String contentHash;
+        public final String fileType;
+        public final String name;
+        final String userId;
+        volatile File staged;
+        /** Completes with the secure URL once the report is recorded. */
+        public final CompletableFuture<String> result = new CompletableFuture<>();
+        private int attempts;
+        private volatile State state = State.QUEUED;
+        private volatile long bytesUploaded;
+        private volatile long totalBytes;
+        private volatile String url;
+        // Set once the file is on Cloudinary; persisted so a retry only records it
+        private volatile String uploadedUrl;
+        private volatile boolean reused;
+        private volatile ImageCompressor.Result compression;
+        private volatile String error;
+
+        Job(String contentHash, String fileType, String name, String userId, File staged) {
+            this.key = keyOf(userId, contentHash);
+            this.contentHash = contentHash;
+            this.fileType = fileType;
+            this.name = name;
+            this.userId = userId;
+            this.staged = staged;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        /** Percent of the file the server has acknowledged, or -1 before the first part. */
+        public int getProgress() {
+            return totalBytes > 0 ? (int) (bytesUploaded * 100 / totalBytes) : -1;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /** Whether the user had uploaded this file before and its URL was reused. */
+        public boolean isReused() {
+            return reused;
+        }
+
+        /** Set once a photo has been compressed for upload. */
+        @Nullable
+        public ImageCompressor.Result getCompression() {
+            return compression;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        private boolean isPdf() {
+            return "pdf".equals(fileType);
+        }
+    }
+
+    /** Called on the main thread. */
+    public interface Listener {
+        void onJobUpdated(Job job);
+    }
+
+    private final Context appContext;
+    private final File dir;
+    // Unfinished and failed jobs by key; a job is removed once its report is recorded
+    private final Map<String, Job> jobs = new LinkedHashMap<String, Job>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Job> eldest) {
+            // Failed jobs are only kept so a recreated screen can show how they ended
+            return size() > MAX_JOBS && eldest.getValue().state.isFinished();
+        }
+    };
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor;
+
+    public static synchronized UploadQueue getInstance(Context context) {
+        if (instance == null) {
+            instance = new UploadQueue(context.getApplicationContext());
+            // Reading the job files is disk I/O, and the first caller is usually on the main thread
+            instance.executor.execute(instance::restore);
+            instance.retryWhenOnline();
+        }
+        return instance;
+    }
+
+    private UploadQueue(Context appContext) {
+        this.appContext = appContext;
+        this.dir = new File(appContext.getFilesDir(), DIR_NAME);
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(MAX_PARALLEL_UPLOADS,
+                r -> new Thread(r, "upload-" + threadNumber.incrementAndGet()));
+        createNotificationChannel();
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /** Key of the job uploading {@code contentHash} for {@code userId}. */
+    public static String keyOf(String userId, String contentHash) {
+        return userId + "_" + contentHash;
+    }
+
+    /**
+     * Queues a staged report for upload under {@code name}. A report the same user already has in
+     * the queue is not queued twice; its job is returned instead, and restarted if it had failed.
+     *
+     * @param fileType {@code pdf} or {@code image}
+     */
+    public Job enqueue(File staged, String contentHash, String fileType, String name, String userId) {
+        Job job;
+        synchronized (jobs) {
+            job = jobs.get(keyOf(userId, contentHash));
+            if (job != null && job.state != State.FAILED) {
+                return job;
+            }
+            job = new Job(contentHash, fileType, name, userId, keptFile(userId, staged));
+            jobs.put(job.key, job);
+        }
+        // The job is saved before the link exists, so a crash in between cannot orphan the bytes
+        saveQuietly(job);
+        try {
+            keep(staged, job.staged);
+        } catch (IOException e) {
+            // Uploads from the staging cache instead, which holds up unless that copy is evicted
+            Log.w(TAG, "Could not keep a copy of " + contentHash + ": " + e.getMessage());
+            job.staged = staged;
+            saveQuietly(job);
+        }
+        submit(job);
+        return job;
+    }
+
+    /**
+     * Returns the job with {@code key}, or {@code null} if it is not in the queue. Jobs leave the
+     * queue once their report is recorded.
+     */
+    @Nullable
+    public Job find(String key) {
+        synchronized (jobs) {
+            return key != null ? jobs.get(key) : null;
+        }
+    }
+
+    private void submit(Job job) {
+        update(job, State.QUEUED);
+        executor.execute(() -> run(job));
+    }
+
+    private void run(Job job) {
+        try {
+            job.attempts++;
+            save(job);
+            update(job, State.UPLOADING);
+            job.url = ReportRecords.findUrl(FirebaseFirestore.getInstance(), job.userId, job.contentHash);
+            job.reused = job.url != null;
+            if (!job.reused) {
+                if (job.uploadedUrl == null) {
+                    File file = job.staged;
+                    if (!job.isPdf()) {
+                        // Photos go up at OCR resolution rather than full camera size
+                        job.compression = ImageCompressor.getInstance().compressForUpload(appContext, job.staged);
+                        file = job.compression.file;
+                    }
+                    job.uploadedUrl = CloudinaryUploader.getInstance().uploadResumable(appContext, file, job.fileType,
+                            (uploaded, total) -> {
+                                int before = job.getProgress();
+                                job.bytesUploaded = uploaded;
+                                job.totalBytes = total;
+                                if (job.getProgress() != before) {
+                                    update(job, State.UPLOADING);
+                                }
+                            });
+                    try {
+                        save(job);
+                    } catch (IOException e) {
+                        // Only costs uploading the file again if recording it fails
+                        Log.w(TAG, "Could not persist URL of " + job.contentHash + ": " + e.getMessage());
+                    }
+                }
+                job.url = job.uploadedUrl;
+
+                update(job, State.RECORDING);
+                String timestamp = new SimpleDateFormat("dd-MM-yyyy HH:mm:ss", Locale.getDefault()).format(new Date());
+                Tasks.await(ReportRecords.add(FirebaseFirestore.getInstance(), job.userId, job.name,
+                        job.url, timestamp, job.fileType, job.contentHash));
+            }
+            delete(job);
+            synchronized (jobs) {
+                jobs.remove(job.key, job);
+            }
+            update(job, State.DONE);
+            job.result.complete(job.url);
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            Log.e(TAG, "Upload of " + job.contentHash + " failed: " + message, e);
+            // A refused upload or a file that is gone would fail the same way next time
+            if (job.attempts >= MAX_ATTEMPTS || !job.staged.isFile() || e instanceof ResumableUploader.UploadRejectedException) {
+                delete(job);
+            }
+            job.error = message;
+            update(job, State.FAILED);
+            job.result.completeExceptionally(e);
+        }
+    }
+
+    // Picks up jobs an earlier run of the app did not finish
+    private void restore() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            Job job;
+            try {
+                job = load(file);
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "Dropping unreadable upload job " + file.getName() + ": " + e.getMessage());
+                file.delete();
+                continue;
+            }
+            if (!job.staged.isFile()) {
+                // The queue's copy could not be made and the staged copy was trimmed from the
+                // cache, or the app died between saving the job and linking its bytes; the report
+                // has to be picked again
+                Log.w(TAG, "Dropping upload of " + job.contentHash + ", its staged file is gone");
+                file.delete();
+                continue;
+            }
+            synchronized (jobs) {
+                if (jobs.containsKey(job.key)) {
+                    // Picked again before the restore got to it; that job already saved this file
+                    continue;
+                }
+                jobs.put(job.key, job);
+            }
+            Log.d(TAG, "Resuming upload of " + job.contentHash);
+            submit(job);
+        }
+    }
+
+    private void retryWhenOnline() {
+        ConnectivityManager connectivity = (ConnectivityManager) appContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivity == null) {
+            return;
+        }
+        connectivity.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                retryFailed();
+            }
+        });
+    }
+
+    /**
+     * Retries failed jobs that still have attempts left. Runs when the network comes back and
+     * each time the app starts, since a failure on a working network would otherwise wait for the
+     * next connectivity change.
+     */
+    public void retryFailed() {
+        executor.execute(() -> {
+            List<Job> failed = new ArrayList<>();
+            synchronized (jobs) {
+                for (Job job : jobs.values()) {
+                    if (job.state == State.FAILED && file(job).isFile()) {
+                        failed.add(job);
+                    }
+                }
+            }
+            for (Job job : failed) {
+                retry(job);
+            }
+        });
+    }
+
+    // A failed job's future has completed, so a retry runs as a fresh job that keeps the attempt count
+    private void retry(Job failed) {
+        Job job = new Job(failed.contentHash, failed.fileType, failed.name, failed.userId, failed.staged);
+        job.attempts = failed.attempts;
+        job.uploadedUrl = failed.uploadedUrl;
+        synchronized (jobs) {
+            if (jobs.get(failed.key) != failed) {
+                // Picked again by the user in the meantime
+                return;
+            }
+            jobs.put(job.key, job);
+        }
+        submit(job);
+    }
+
+    private void update(Job job, State state) {
+        job.state = state;
+        notifyProgress(job);
+        mainHandler.post(() -> {
+            for (Listener listener : listeners) {
+                listener.onJobUpdated(job);
+            }
+        });
+    }
+
+    private void createNotificationChannel() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "Report Uploads",
+                    NotificationManager.IMPORTANCE_LOW);
+            channel.setDescription("Progress of report uploads");
+            NotificationManager manager = appContext.getSystemService(NotificationManager.class);
+            manager.createNotificationChannel(channel);
+        }
+    }
+
+    private void notifyProgress(Job job) {
+        NotificationManagerCompat manager = NotificationManagerCompat.from(appContext);
+        if (!manager.areNotificationsEnabled()) {
+            return;
+        }
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(appContext, CHANNEL_ID)
+                .setContentTitle(job.name)
+                .setOnlyAlertOnce(true);
+        switch (job.state) {
+            case DONE:
+                builder.setSmallIcon(android.R.drawable.stat_sys_upload_done)
+                        .setContentText(job.reused ? "Already uploaded" : "Uploaded")
+                        .setAutoCancel(true);
+                break;
+            case FAILED:
+                builder.setSmallIcon(android.R.drawable.stat_notify_error)
+                        .setContentText("Upload failed: " + job.error)
+                        .setAutoCancel(true);
+                break;
+            default:
+                int progress = job.getProgress();
+                builder.setSmallIcon(android.R.drawable.stat_sys_upload)
+                        .setContentText(job.state == State.UPLOADING && progress >= 0
+                                ? job.state.label + " " + progress + "%" : job.state.label)
+                        .setProgress(100, Math.max(progress, 0), progress < 0)
+                        .setOngoing(true);
+                break;
+        }
+        try {
+            manager.notify(job.key.hashCode(), builder.build());
+        } catch (SecurityException e) {
+            // Notification permission revoked while uploading
+            Log.w(TAG, "Could not show upload progress: " + e.getMessage());
+        }
+    }
+
+    private File file(Job job) {
+        return new File(dir, job.key + SUFFIX);
+    }
+
+    // Written to a temporary file and renamed, so a crash never leaves half a job behind
+    private void save(Job job) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        Properties properties = new Properties();
+        properties.setProperty("contentHash", job.contentHash);
+        properties.setProperty("fileType", job.fileType);
+        properties.setProperty("name", job.name);
+        properties.setProperty("userId", job.userId);
+        properties.setProperty("staged", job.staged.getAbsolutePath());
+        properties.setProperty("attempts", Integer.toString(job.attempts));
+        if (job.uploadedUrl != null) {
+            properties.setProperty("uploadedUrl", job.uploadedUrl);
+        }
+        File target = file(job);
+        File temp = new File(dir, target.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            properties.store(out, null);
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Could not write " + target);
+        }
+    }
+
+    private static Job load(File file) throws IOException {
+        Properties properties = new Properties();
+        try (FileInputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        }
+        String contentHash = properties.getProperty("contentHash");
+        String staged = properties.getProperty("staged");
+        if (contentHash == null || staged == null) {
+            throw new IOException("Incomplete job");
+        }
+        Job job = new Job(contentHash, properties.getProperty("fileType", "pdf"), properties.getProperty("name", ""),
+                properties.getProperty("userId", ""), new File(staged));
+        job.attempts = Integer.parseInt(properties.getProperty("attempts", "0"));
+        job.uploadedUrl = properties.getProperty("uploadedUrl");
+        return job;
+    }
+
+    private void saveQuietly(Job job) {
+        try {
+            save(job);
+        } catch (IOException e) {
+            // Only costs surviving a restart; the upload itself goes ahead
+            Log.w(TAG, "Could not persist upload of " + job.contentHash + ": " + e.getMessage());
+        }
+    }
+
+    // Keeps the staged file's name, which carries the content hash the uploader resumes by
+    private File keptFile(String userId, File staged) {
+        return new File(new File(dir, userId), staged.getName());
+    }
+
+    // A hard link costs no space while the staging cache still holds the bytes; the copy is for
+    // file systems without links
+    private static void keep(File staged, File kept) throws IOException {
+        File parent = kept.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        File temp = new File(parent, kept.getName() + ".tmp");
+        temp.delete();
+        try {
+            Os.link(staged.getAbsolutePath(), temp.getAbsolutePath());
+        } catch (ErrnoException e) {
+            try (FileChannel in = new FileInputStream(staged).getChannel();
+                 FileChannel out = new FileOutputStream(temp).getChannel()) {
+                long position = 0;
+                long size = in.size();
+                while (position < size) {
+                    position += in.transferTo(position, size - position, out);
+                }
+            } catch (IOException copyFailed) {
+                temp.delete();
+                throw copyFailed;
+            }
+        }
+        if (!temp.renameTo(kept)) {
+            temp.delete();
+            throw new IOException("Could not write " + kept);
+        }
+    }
+
+    private void delete(Job job) {
+        File file = file(job);
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Could not delete " + file);
+        }
+        // Only the queue's own copy; the staging cache manages its files itself
+        File staged = job.staged;
+        File parent = staged.getParentFile();
+        if (parent != null && dir.equals(parent.getParentFile()) && staged.exists() && !staged.delete()) {
+            Log.w(TAG, "Could not delete " + staged);
+        }
+    }
+}
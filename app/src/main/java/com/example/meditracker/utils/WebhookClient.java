@@ -0,0 +1,468 @@
+package com.example.meditracker.utils;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * The one way the app talks to its n8n webhooks. Every submission is journaled in the
+ * {@link WebhookOutbox}, sent compressed with an idempotency key and answered through a
+ * {@link CompletableFuture}. A request tied to a {@link LifecycleOwner} is cancelled when its
+ * owner is destroyed: the call and any pending retry stop, the owner is released, and the
+ * submission is left to the outbox to deliver in the background. An activity recreated for a
+ * configuration change keeps its requests; it finds them again by key and reattaches.
+ *
+ * <p>Futures complete on an OkHttp thread; use {@code whenCompleteAsync} with
+ * {@code ContextCompat.getMainExecutor} to update views.
+ */
+public class WebhookClient {
+    private static final String TAG = "WebhookClient";
+
+    /**
+     * Webhook URLs with their timeouts, retry budgets and circuit breaker settings, all configured
+     * here.
+     */
+    public enum Endpoint {
+        // Report parameters; n8n acknowledges them quickly
+        REPORTS("https://ruban11.app.n8n.cloud/webhook-test/medvision-webhook",
+                "application/json", 30_000, 3, 2_000, 5, 10_000, 30_000, true),
+        // Waits on a language model, so the answer may take minutes; not retried in place
+        // because the summary may already be half on screen. The workflow only answers once the
+        // model is done, so the headers alone can take minutes on a healthy call: only a call
+        // about to hit its timeout counts as too slow, and it takes three bad calls to open.
+        SUMMARY("https://ruban112.app.n8n.cloud/webhook-test/medvision-webhook",
+                SummaryStream.ACCEPT, 5 * 60_000, 1, 0, 3, 4 * 60_000, 60_000, false);
+
+        public final String url;
+        final String accept;
+        final long callTimeoutMs;
+        final int maxAttempts;
+        final long retryDelayMs;
+        final int breakerMinCalls;
+        final long latencyBudgetMs;
+        final long breakerOpenMs;
+        // Whether a request cancelled with its screen is still delivered in the background
+        final boolean sendAfterCancel;
+
+        Endpoint(String url, String accept, long callTimeoutMs, int maxAttempts, long retryDelayMs,
+                 int breakerMinCalls, long latencyBudgetMs, long breakerOpenMs, boolean sendAfterCancel) {
+            this.url = url;
+            this.accept = accept;
+            this.callTimeoutMs = callTimeoutMs;
+            this.maxAttempts = maxAttempts;
+            this.retryDelayMs = retryDelayMs;
+            this.breakerMinCalls = breakerMinCalls;
+            this.latencyBudgetMs = latencyBudgetMs;
+            this.breakerOpenMs = breakerOpenMs;
+            this.sendAfterCancel = sendAfterCancel;
+        }
+    }
+
+    /** Turns a successful response body into the future's value. Runs on an OkHttp thread. */
+    public interface BodyReader<T> {
+        T read(ResponseBody body) throws IOException;
+    }
+
+    /**
+     * A {@link BodyReader} that can hand partial values, e.g. a summary streamed in pieces, to
+     * whoever observes the exchange through {@link Exchange#publishProgress}.
+     */
+    public interface StreamReader<T> {
+        T read(ResponseBody body, Exchange<T> exchange) throws IOException;
+    }
+
+    /** Receives partial values from a {@link StreamReader}. Called on an OkHttp thread. */
+    public interface ProgressListener<T> {
+        void onProgress(T soFar);
+    }
+
+    /** Why a submission did not succeed. */
+    public static class WebhookException extends IOException {
+        /** HTTP status, or -1 when no response arrived. */
+        public final int code;
+        /** The submission stays in the outbox and will be delivered later. */
+        public final boolean queued;
+
+        WebhookException(String message, int code, boolean queued, Throwable cause) {
+            super(message, cause);
+            this.code = code;
+            this.queued = queued;
+        }
+    }
+
+    /** Rejected without a call because the endpoint's circuit breaker is open. */
+    public static class CircuitOpenException extends WebhookException {
+        /** Until the breaker lets the next probe through. */
+        public final long retryInMs;
+
+        CircuitOpenException(String message, long retryInMs) {
+            super(message, -1, true, null);
+            this.retryInMs = retryInMs;
+        }
+    }
+
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
+
+    private static WebhookClient instance;
+
+    private final WebhookOutbox outbox;
+    private final Map<Endpoint, OkHttpClient> clients = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, CircuitBreaker> breakers = new EnumMap<>(Endpoint.class);
+    private final ScheduledExecutorService retryTimer =
+            Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "webhook-retry"));
+    // In-flight exchanges by owner; an owner stays here until it is destroyed so that its
+    // lifecycle observer is registered only once
+    private final Map<LifecycleOwner, Set<Exchange<?>>> byOwner = new HashMap<>();
+    // In-flight exchanges by key, so a recreated screen can reattach to its request
+    private final Map<String, Exchange<?>> byKey = new ConcurrentHashMap<>();
+
+    /**
+     * A submission in flight. Cancelling it stops the current attempt and any scheduled retry,
+     * and either hands the submission back to the outbox or, for endpoints whose answer only
+     * matters to the screen that asked, drops it.
+     */
+    public class Exchange<T> extends CompletableFuture<T> {
+        private final String key;
+        private final Endpoint endpoint;
+        private final RequestBody body;
+        private final StreamReader<T> reader;
+        private int attempts;
+        private Call call;
+        private ScheduledFuture<?> retry;
+        private ProgressListener<T> progressListener;
+        private T progress;
+
+        Exchange(String key, Endpoint endpoint, RequestBody body, StreamReader<T> reader) {
+            this.key = key;
+            this.endpoint = endpoint;
+            this.body = body;
+            this.reader = reader;
+        }
+
+        /** The idempotency key, which is also the submission's key in the outbox. */
+        public String key() {
+            return key;
+        }
+
+        /**
+         * Sets who receives partial values from now on, replacing the previous listener. The
+         * latest partial value, if any, is passed on at once.
+         */
+        public void setProgressListener(@Nullable ProgressListener<T> listener) {
+            T latest;
+            synchronized (this) {
+                progressListener = listener;
+                latest = progress;
+            }
+            if (listener != null && latest != null) {
+                listener.onProgress(latest);
+            }
+        }
+
+        /** For readers: passes a partial value to the current progress listener. */
+        public void publishProgress(T soFar) {
+            ProgressListener<T> listener;
+            synchronized (this) {
+                progress = soFar;
+                listener = progressListener;
+            }
+            if (listener != null) {
+                listener.onProgress(soFar);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                synchronized (this) {
+                    if (call != null) {
+                        call.cancel();
+                    }
+                    if (retry != null) {
+                        retry.cancel(false);
+                    }
+                }
+                if (endpoint.sendAfterCancel) {
+                    outbox.retryLater(key);
+                } else {
+                    outbox.markDone(key);
+                }
+                Log.d(TAG, "Cancelled " + endpoint + " request " + key);
+            }
+            return cancelled;
+        }
+
+        private synchronized void attempt() {
+            if (isDone()) {
+                return;
+            }
+            CircuitBreaker breaker = breakers.get(endpoint);
+            if (!breaker.tryAcquire()) {
+                // Fail fast instead of waiting out a timeout; the outbox keeps the submission and
+                // sends it once the breaker lets a probe through
+                long retryIn = breaker.snapshot().retryInMs;
+                Log.w(TAG, endpoint + " circuit is " + breaker.getState() + ", rejecting " + key);
+                outbox.retryLater(key);
+                completeExceptionally(new CircuitOpenException(
+                        endpoint + " is not responding, next check in " + retryIn / 1000 + " s", retryIn));
+                return;
+            }
+            attempts++;
+            long startedAt = System.nanoTime();
+            Request request = new Request.Builder()
+                    .url(endpoint.url)
+                    .header(WebhookOutbox.IDEMPOTENCY_HEADER, key)
+                    .header(GzipJsonBody.CONTENT_ENCODING, GzipJsonBody.GZIP)
+                    .header("Accept", endpoint.accept)
+                    .post(body)
+                    .build();
+            call = clients.get(endpoint).newCall(request);
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                    if (call.isCanceled()) {
+                        breaker.release();
+                        return;
+                    }
+                    breaker.recordFailure(elapsedMs(startedAt));
+                    failed(-1, e.getMessage(), e);
+                }
+
+                @Override
+                public void onResponse(@NonNull Call call, @NonNull Response response) {
+                    try (ResponseBody responseBody = response.body()) {
+                        int code = response.code();
+                        // Latency up to the headers; a streamed body may legitimately take longer
+                        if (WebhookOutbox.isRetryable(code)) {
+                            breaker.recordFailure(elapsedMs(startedAt));
+                        } else {
+                            breaker.recordSuccess(elapsedMs(startedAt));
+                        }
+                        if (!response.isSuccessful()) {
+                            String error = responseBody != null ? responseBody.string() : "";
+                            failed(code, "HTTP " + code + (error.isEmpty() ? "" : ": " + error), null);
+                            return;
+                        }
+                        T value = reader.read(responseBody, Exchange.this);
+                        outbox.markDone(key);
+                        complete(value);
+                    } catch (IOException e) {
+                        // Cut off mid-response; the server recognises the resend by its key
+                        if (!call.isCanceled()) {
+                            failed(-1, e.getMessage(), e);
+                        }
+                    } catch (RuntimeException e) {
+                        outbox.markDone(key);
+                        completeExceptionally(e);
+                    }
+                }
+            });
+        }
+
+        private void failed(int code, String message, IOException cause) {
+            boolean retryable = code == -1 || WebhookOutbox.isRetryable(code);
+            if (retryable && attempts < endpoint.maxAttempts) {
+                long delay = endpoint.retryDelayMs << (attempts - 1);
+                Log.w(TAG, endpoint + " attempt " + attempts + " failed (" + message + "), retrying in " + delay + " ms");
+                synchronized (this) {
+                    if (!isDone()) {
+                        retry = retryTimer.schedule(this::attempt, delay, TimeUnit.MILLISECONDS);
+                    }
+                }
+                return;
+            }
+            if (retryable) {
+                outbox.retryLater(key);
+            } else {
+                outbox.markDone(key);
+            }
+            Log.w(TAG, endpoint + " request " + key + " failed: " + message);
+            completeExceptionally(new WebhookException(message, code, retryable, cause));
+        }
+    }
+
+    public static synchronized WebhookClient getInstance(Context context) {
+        if (instance == null) {
+            instance = new WebhookClient(WebhookOutbox.getInstance(context), SharedHttpClient.get());
+        }
+        return instance;
+    }
+
+    WebhookClient(WebhookOutbox outbox, OkHttpClient base) {
+        this.outbox = outbox;
+        // Same connection pool and dispatcher for every endpoint, only the timeouts differ
+        for (Endpoint endpoint : Endpoint.values()) {
+            CircuitBreaker breaker = new CircuitBreaker(endpoint.name(), endpoint.breakerMinCalls,
+                    endpoint.latencyBudgetMs, endpoint.breakerOpenMs);
+            breakers.put(endpoint, breaker);
+            // Background resends count towards and are held back by the same breaker
+            outbox.gate(endpoint.url, breaker);
+            clients.put(endpoint, base.newBuilder()
+                    .callTimeout(endpoint.callTimeoutMs, TimeUnit.MILLISECONDS)
+                    .readTimeout(endpoint.callTimeoutMs, TimeUnit.MILLISECONDS)
+                    .writeTimeout(endpoint.callTimeoutMs, TimeUnit.MILLISECONDS)
+                    .build());
+        }
+    }
+
+    /**
+     * Journals {@code payload} and posts it to {@code endpoint}.
+     *
+     * @param owner cancels the request when destroyed; null for requests that outlive any screen
+     */
+    public <T> Exchange<T> post(@Nullable LifecycleOwner owner, Endpoint endpoint,
+                                GzipJsonBody.Source payload, BodyReader<T> reader) {
+        return postStreaming(owner, endpoint, payload, (body, exchange) -> reader.read(body));
+    }
+
+    /** Like {@link #post}, for readers that report partial values while the body arrives. */
+    public <T> Exchange<T> postStreaming(@Nullable LifecycleOwner owner, Endpoint endpoint,
+                                         GzipJsonBody.Source payload, StreamReader<T> reader) {
+        String key = WebhookOutbox.newKey();
+        RequestBody body;
+        try {
+            body = GzipJsonBody.fromFile(outbox.addInFlight(key, endpoint.url, payload));
+        } catch (IOException e) {
+            // Still worth a live attempt, it just is not retried after a restart
+            Log.w(TAG, "Could not journal submission: " + e.getMessage());
+            body = new GzipJsonBody(payload);
+        }
+
+        Exchange<T> exchange = new Exchange<>(key, endpoint, body, reader);
+        byKey.put(key, exchange);
+        exchange.whenComplete((value, error) -> byKey.remove(key));
+        if (owner != null) {
+            bind(owner, exchange);
+        }
+        exchange.attempt();
+        return exchange;
+    }
+
+    /** Returns the request still in flight under {@code key}, or {@code null}. */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public <T> Exchange<T> find(@Nullable String key) {
+        return key != null ? (Exchange<T>) byKey.get(key) : null;
+    }
+
+    /**
+     * Ties a request found with {@link #find} to a new owner, e.g. the screen recreated after a
+     * rotation, so it is cancelled when that owner is destroyed.
+     */
+    public void attach(LifecycleOwner owner, Exchange<?> exchange) {
+        if (!exchange.isDone()) {
+            bind(owner, exchange);
+        }
+    }
+
+    /** The endpoint's breaker, for showing its state and recent latency. */
+    public CircuitBreaker breaker(Endpoint endpoint) {
+        return breakers.get(endpoint);
+    }
+
+    /** Cancels every request tagged with {@code owner}. */
+    public void cancelAll(LifecycleOwner owner) {
+        List<Exchange<?>> exchanges;
+        synchronized (byOwner) {
+            Set<Exchange<?>> owned = byOwner.remove(owner);
+            exchanges = owned != null ? new ArrayList<>(owned) : Collections.emptyList();
+        }
+        for (Exchange<?> exchange : exchanges) {
+            exchange.cancel(true);
+        }
+    }
+
+    // Forgets the owner without cancelling its requests
+    private void release(LifecycleOwner owner) {
+        synchronized (byOwner) {
+            byOwner.remove(owner);
+        }
+    }
+
+    private void bind(LifecycleOwner owner, Exchange<?> exchange) {
+        boolean firstForOwner;
+        synchronized (byOwner) {
+            Set<Exchange<?>> owned = byOwner.get(owner);
+            firstForOwner = owned == null;
+            if (firstForOwner) {
+                owned = new HashSet<>();
+                byOwner.put(owner, owned);
+            }
+            owned.add(exchange);
+        }
+        exchange.whenComplete((value, error) -> {
+            synchronized (byOwner) {
+                Set<Exchange<?>> owned = byOwner.get(owner);
+                if (owned != null) {
+                    owned.remove(exchange);
+                }
+            }
+        });
+        if (firstForOwner) {
+            // Lifecycle observers may only be added on the main thread
+            runOnMain(() -> {
+                Lifecycle lifecycle = owner.getLifecycle();
+                if (lifecycle.getCurrentState() == Lifecycle.State.DESTROYED) {
+                    cancelAll(owner);
+                    return;
+                }
+                lifecycle.addObserver((LifecycleEventObserver) (source, event) -> {
+                    if (event != Lifecycle.Event.ON_DESTROY) {
+                        return;
+                    }
+                    if (source instanceof Activity && ((Activity) source).isChangingConfigurations()) {
+                        // Recreated at once; the new screen reattaches instead of sending again
+                        release(owner);
+                    } else {
+                        cancelAll(owner);
+                    }
+                });
+            });
+        }
+    }
+
+    private static long elapsedMs(long startedAt) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+    }
+
+    private static void runOnMain(Runnable runnable) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            runnable.run();
+        } else {
+            MAIN.post(runnable);
+        }
+    }
+}
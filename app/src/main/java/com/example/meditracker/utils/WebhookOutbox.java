@@ -0,0 +1,566 @@
+package com.example.meditracker.utils;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Okio;
+
+/**
+ * Durable outbox for webhook submissions. Every submission is compressed into its own payload
+ * file and appended to a journal, both synced before it is sent, and it stays there until a
+ * delivery succeeds, so nothing is lost to a dropped connection, process death or a reboot. A background drainer retries failed entries
+ * with exponential backoff and jitter, and holds back entries whose endpoint has an open
+ * {@link CircuitBreaker}. Each entry carries an {@code Idempotency-Key} that is
+ * sent with every attempt, so the server can ignore repeats.
+ *
+ * <p>Journal records are single lines of tab-separated fields:
+ * <pre>
+ * A key notBefore url        added; the body is in key.json.gz
+ * R key attempts notBefore   retry scheduled
+ * D key                      delivered or dropped
+ * </pre>
+ * A record is only valid once its newline has been written, so a write torn by a crash is ignored
+ * on replay. The journal is rewritten without dead records once they outnumber the live ones.
+ */
+public class WebhookOutbox {
+    private static final String TAG = "WebhookOutbox";
+    private static final String DIR_NAME = "webhook_outbox";
+    private static final String JOURNAL_NAME = "outbox.journal";
+    private static final String PAYLOAD_SUFFIX = ".json.gz";
+    public static final String IDEMPOTENCY_HEADER = "Idempotency-Key";
+
+    private static final long BASE_BACKOFF_MS = 5_000;
+    private static final long MAX_BACKOFF_MS = 30 * 60_000;
+    private static final int MAX_ATTEMPTS = 20;
+    // Longer than the slowest webhook call, so the drainer never races a caller still waiting on it
+    private static final long IN_FLIGHT_GRACE_MS = 6 * 60_000;
+    private static final int MIN_RECORDS_BEFORE_COMPACTION = 64;
+
+    private static WebhookOutbox instance;
+
+    private final File dir;
+    private final File journal;
+    private final OkHttpClient client;
+    private final Random random;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService drainer =
+            Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "webhook-outbox"));
+    private ScheduledFuture<?> nextDrain;
+    private int deadRecords;
+
+    /** Called on the drainer thread. */
+    public interface Listener {
+        void onDelivered(String key, String responseBody);
+
+        void onRetryScheduled(String key, int attempts, long delayMs);
+
+        void onDropped(String key, String reason);
+    }
+
+    private static class Entry {
+        final String key;
+        final String url;
+        int attempts;
+        long notBefore;
+
+        Entry(String key, String url, long notBefore) {
+            this.key = key;
+            this.url = url;
+            this.notBefore = notBefore;
+        }
+    }
+
+    public static synchronized WebhookOutbox getInstance(Context context) {
+        if (instance == null) {
+            Context appContext = context.getApplicationContext();
+            instance = new WebhookOutbox(new File(appContext.getFilesDir(), DIR_NAME),
+                    SharedHttpClient.forSlowResponses(), new Random());
+            instance.drainWhenOnline(appContext);
+            instance.drain();
+        }
+        return instance;
+    }
+
+    WebhookOutbox(File dir, OkHttpClient client, Random random) {
+        this.dir = dir;
+        this.journal = new File(dir, JOURNAL_NAME);
+        this.client = client;
+        this.random = random;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(TAG, "Could not create " + dir);
+        }
+        replay();
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Makes background deliveries to {@code url} ask {@code breaker} first and report their
+     * outcome to it, the same as calls made directly by a {@link WebhookClient}.
+     */
+    public void gate(String url, CircuitBreaker breaker) {
+        breakers.put(url, breaker);
+    }
+
+    public static String newKey() {
+        return UUID.randomUUID().toString();
+    }
+
+    /** Journals a submission and delivers it in the background as soon as possible. */
+    public String add(String url, GzipJsonBody.Source payload) throws IOException {
+        String key = newKey();
+        append(new Entry(key, url, 0), payload);
+        drain();
+        return key;
+    }
+
+    /**
+     * Journals a submission the caller is about to send itself with {@code key} as its
+     * idempotency key, and returns the compressed payload file to send with
+     * {@link GzipJsonBody#fromFile}. Follow up with {@link #markDone} or {@link #retryLater}. If
+     * the process dies first, the drainer sends it after a grace period.
+     */
+    public File addInFlight(String key, String url, GzipJsonBody.Source payload) throws IOException {
+        return append(new Entry(key, url, System.currentTimeMillis() + IN_FLIGHT_GRACE_MS), payload);
+    }
+
+    /** The caller delivered the submission, or gave up on it for good. */
+    public synchronized void markDone(String key) {
+        if (entries.remove(key) != null) {
+            writeRecord("D\t" + key);
+            payloadFile(key).delete();
+            deadRecords += 2;
+            maybeCompact();
+        }
+    }
+
+    /** The caller's own attempt failed; the drainer takes over with backoff. */
+    public void retryLater(String key) {
+        Entry entry;
+        long delay;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                return;
+            }
+            delay = scheduleRetry(entry, System.currentTimeMillis());
+        }
+        if (delay >= 0) {
+            notifyRetry(key, entry.attempts, delay);
+        }
+        drain();
+    }
+
+    /** Whether the submission under {@code key} is still waiting to be delivered. */
+    public synchronized boolean isPending(String key) {
+        return entries.containsKey(key);
+    }
+
+    public synchronized int pendingCount() {
+        return entries.size();
+    }
+
+    // Stops the drainer; the journal keeps whatever is still pending
+    void shutdown() {
+        drainer.shutdownNow();
+    }
+
+    /** Delivers due entries on the drainer thread, then schedules itself for the next one. */
+    public void drain() {
+        drain(null);
+    }
+
+    /** Like {@link #drain()}, then runs {@code onDrained} on the drainer thread. */
+    public void drain(@Nullable Runnable onDrained) {
+        if (drainer.isShutdown()) {
+            if (onDrained != null) {
+                onDrained.run();
+            }
+            return;
+        }
+        drainer.execute(() -> {
+            try {
+                deliverDue(System.currentTimeMillis());
+                scheduleNextDrain();
+            } finally {
+                if (onDrained != null) {
+                    onDrained.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Attempts every entry due at {@code now}, in submission order. Runs on the calling thread.
+     *
+     * @return the number of entries delivered
+     */
+    int deliverDue(long now) {
+        List<Entry> due = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : entries.values()) {
+                if (entry.notBefore <= now) {
+                    due.add(entry);
+                }
+            }
+        }
+
+        int delivered = 0;
+        for (Entry entry : due) {
+            CircuitBreaker breaker = breakers.get(entry.url);
+            if (breaker != null && !breaker.tryAcquire()) {
+                // Not an attempt: wait for the breaker's next probe instead of adding to the load
+                defer(entry, now + Math.max(breaker.snapshot().retryInMs, BASE_BACKOFF_MS));
+                continue;
+            }
+            long startedAt = System.nanoTime();
+            Request request = new Request.Builder()
+                    .url(entry.url)
+                    .header(IDEMPOTENCY_HEADER, entry.key)
+                    .header(GzipJsonBody.CONTENT_ENCODING, GzipJsonBody.GZIP)
+                    .post(GzipJsonBody.fromFile(payloadFile(entry.key)))
+                    .build();
+            int code;
+            String body;
+            try (Response response = client.newCall(request).execute()) {
+                code = response.code();
+                if (breaker != null) {
+                    long latencyMs = elapsedMs(startedAt);
+                    if (isRetryable(code)) {
+                        breaker.recordFailure(latencyMs);
+                    } else {
+                        breaker.recordSuccess(latencyMs);
+                    }
+                }
+                ResponseBody responseBody = response.body();
+                body = responseBody != null ? responseBody.string() : "";
+            } catch (IOException e) {
+                if (breaker != null) {
+                    breaker.recordFailure(elapsedMs(startedAt));
+                }
+                Log.w(TAG, "Delivery of " + entry.key + " failed: " + e.getMessage());
+                retry(entry, now);
+                continue;
+            }
+
+            if (code >= 200 && code < 300) {
+                markDone(entry.key);
+                delivered++;
+                for (Listener listener : listeners) {
+                    listener.onDelivered(entry.key, body);
+                }
+            } else if (isRetryable(code)) {
+                Log.w(TAG, "Delivery of " + entry.key + " got HTTP " + code + ", will retry");
+                retry(entry, now);
+            } else {
+                drop(entry.key, "HTTP " + code);
+            }
+        }
+        return delivered;
+    }
+
+    /** Timeouts, rate limiting and server-side failures are worth another attempt later. */
+    public static boolean isRetryable(int code) {
+        return code == 408 || code == 429 || code >= 500;
+    }
+
+    private synchronized void defer(Entry entry, long notBefore) {
+        entry.notBefore = Math.max(entry.notBefore, notBefore);
+    }
+
+    private static long elapsedMs(long startedAt) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+    }
+
+    private void retry(Entry entry, long now) {
+        long delay;
+        synchronized (this) {
+            if (!entries.containsKey(entry.key)) {
+                return;
+            }
+            delay = scheduleRetry(entry, now);
+        }
+        if (delay >= 0) {
+            notifyRetry(entry.key, entry.attempts, delay);
+        }
+    }
+
+    // Returns the delay until the next attempt, or -1 if the entry was dropped instead
+    private long scheduleRetry(Entry entry, long now) {
+        entry.attempts++;
+        if (entry.attempts >= MAX_ATTEMPTS) {
+            dropLocked(entry.key, "gave up after " + entry.attempts + " attempts");
+            return -1;
+        }
+        long delay = backoff(entry.attempts);
+        entry.notBefore = now + delay;
+        writeRecord("R\t" + entry.key + "\t" + entry.attempts + "\t" + entry.notBefore);
+        deadRecords++;
+        return delay;
+    }
+
+    // Exponential with "equal jitter": somewhere between half and all of the capped delay
+    long backoff(int attempts) {
+        long cap = BASE_BACKOFF_MS << Math.min(attempts - 1, 20);
+        cap = Math.min(cap, MAX_BACKOFF_MS);
+        long half = cap / 2;
+        return half + (long) (random.nextDouble() * (cap - half));
+    }
+
+    private void drop(String key, String reason) {
+        synchronized (this) {
+            dropLocked(key, reason);
+        }
+    }
+
+    private void dropLocked(String key, String reason) {
+        Log.e(TAG, "Dropping " + key + ": " + reason);
+        markDone(key);
+        for (Listener listener : listeners) {
+            listener.onDropped(key, reason);
+        }
+    }
+
+    private void notifyRetry(String key, int attempts, long delay) {
+        for (Listener listener : listeners) {
+            listener.onRetryScheduled(key, attempts, delay);
+        }
+    }
+
+    private synchronized void scheduleNextDrain() {
+        if (nextDrain != null) {
+            nextDrain.cancel(false);
+            nextDrain = null;
+        }
+        long earliest = Long.MAX_VALUE;
+        for (Entry entry : entries.values()) {
+            earliest = Math.min(earliest, entry.notBefore);
+        }
+        if (earliest != Long.MAX_VALUE) {
+            long delay = Math.max(0, earliest - System.currentTimeMillis());
+            nextDrain = drainer.schedule(() -> drain(), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Connectivity returning is the most likely moment for a backed-off entry to succeed
+    private void drainWhenOnline(Context context) {
+        ConnectivityManager connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivity == null) {
+            return;
+        }
+        connectivity.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                synchronized (WebhookOutbox.this) {
+                    long now = System.currentTimeMillis();
+                    for (Entry entry : entries.values()) {
+                        // Entries a live caller is still waiting on keep their grace period
+                        if (entry.attempts > 0) {
+                            entry.notBefore = Math.min(entry.notBefore, now);
+                        }
+                    }
+                }
+                drain();
+            }
+        });
+    }
+
+    // The payload is streamed into its file and synced before the journal refers to it
+    private File append(Entry entry, GzipJsonBody.Source payload) throws IOException {
+        if (entry.url.indexOf('\t') >= 0 || entry.url.indexOf('\n') >= 0) {
+            throw new IllegalArgumentException("URL must be a single line without tabs");
+        }
+        File file = payloadFile(entry.key);
+        try {
+            GzipJsonBody.write(payload, Okio.buffer(Okio.sink(file)));
+        } catch (IOException | RuntimeException e) {
+            // Not in the journal yet, so nothing else would ever remove it
+            file.delete();
+            throw e;
+        }
+        try (RandomAccessFile sync = new RandomAccessFile(file, "rw")) {
+            sync.getFD().sync();
+        }
+        synchronized (this) {
+            appendLine("A\t" + entry.key + "\t" + entry.notBefore + "\t" + entry.url);
+            entries.put(entry.key, entry);
+        }
+        return file;
+    }
+
+    private File payloadFile(String key) {
+        return new File(dir, key + PAYLOAD_SUFFIX);
+    }
+
+    // Journal failures after the add are logged: the worst case is one extra, deduplicated delivery
+    private void writeRecord(String line) {
+        try {
+            appendLine(line);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write outbox journal: " + e.getMessage(), e);
+        }
+    }
+
+    private void appendLine(String line) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(journal, true)) {
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+    }
+
+    private synchronized void replay() {
+        if (!journal.isFile()) {
+            return;
+        }
+        String content;
+        try (InputStream in = new FileInputStream(journal)) {
+            content = new String(readAll(in), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read outbox journal: " + e.getMessage(), e);
+            return;
+        }
+
+        int records = 0;
+        int start = 0;
+        int newline;
+        while ((newline = content.indexOf('\n', start)) >= 0) {
+            String line = content.substring(start, newline);
+            start = newline + 1;
+            records++;
+            String[] fields = line.split("\t", 4);
+            try {
+                switch (fields[0]) {
+                    case "A":
+                        entries.put(fields[1], new Entry(fields[1], fields[3], Long.parseLong(fields[2])));
+                        break;
+                    case "R": {
+                        Entry entry = entries.get(fields[1]);
+                        if (entry != null) {
+                            entry.attempts = Integer.parseInt(fields[2]);
+                            entry.notBefore = Long.parseLong(fields[3]);
+                        }
+                        break;
+                    }
+                    case "D":
+                        entries.remove(fields[1]);
+                        break;
+                    default:
+                        Log.w(TAG, "Skipping unknown outbox record " + fields[0]);
+                }
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Skipping malformed outbox record: " + e.getMessage());
+            }
+        }
+        if (start < content.length()) {
+            Log.w(TAG, "Ignoring torn outbox record at end of journal");
+        }
+        dropEntriesWithoutPayload();
+        deleteOrphanedPayloads();
+        deadRecords = records - entries.size();
+        maybeCompact();
+        Log.d(TAG, "Outbox replayed with " + entries.size() + " pending submission(s)");
+    }
+
+    private void maybeCompact() {
+        if (deadRecords < MIN_RECORDS_BEFORE_COMPACTION || deadRecords < entries.size()) {
+            return;
+        }
+        File temp = new File(journal.getParentFile(), JOURNAL_NAME + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            StringBuilder sb = new StringBuilder();
+            for (Entry entry : entries.values()) {
+                sb.setLength(0);
+                sb.append("A\t").append(entry.key).append('\t').append(entry.notBefore).append('\t')
+                        .append(entry.url).append('\n');
+                if (entry.attempts > 0) {
+                    sb.append("R\t").append(entry.key).append('\t').append(entry.attempts).append('\t')
+                            .append(entry.notBefore).append('\n');
+                }
+                out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not compact outbox journal: " + e.getMessage());
+            temp.delete();
+            return;
+        }
+        if (temp.renameTo(journal)) {
+            deadRecords = 0;
+        } else {
+            temp.delete();
+        }
+    }
+
+    private void dropEntriesWithoutPayload() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (!payloadFile(entry.key).isFile()) {
+                Log.w(TAG, "Dropping " + entry.key + ": payload file is missing");
+                it.remove();
+            }
+        }
+    }
+
+    // Left behind by a crash between writing a payload and journaling it
+    private void deleteOrphanedPayloads() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(PAYLOAD_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!entries.containsKey(name.substring(0, name.length() - PAYLOAD_SUFFIX.length()))) {
+                file.delete();
+            }
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int len;
+        while ((len = in.read(buffer)) > 0) {
+            out.write(buffer, 0, len);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.meditracker.utils;
+
+import com.example.meditracker.utils.InstantSummary.Finding;
+import com.example.meditracker.utils.InstantSummary.Status;
+import com.example.meditracker.utils.LabResult.Parameter;
+import com.example.meditracker.utils.LabResult.Sex;
+import com.example.meditracker.utils.LabResult.Unit;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InstantSummaryTest {
+
+    @Test
+    public void hemoglobinRangeFollowsSex() {
+        assertEquals(Status.LOW, status(hemoglobin(Sex.MALE, 30, 13.0f), Parameter.HEMOGLOBIN));
+        assertEquals(Status.NORMAL, status(hemoglobin(Sex.FEMALE, 30, 13.0f), Parameter.HEMOGLOBIN));
+    }
+
+    @Test
+    public void hemoglobinRangeFollowsAge() {
+        assertEquals(Status.NORMAL, status(hemoglobin(Sex.MALE, 30, 15.8f), Parameter.HEMOGLOBIN));
+        assertEquals(Status.NORMAL, status(hemoglobin(Sex.UNKNOWN, 14, 15.8f), Parameter.HEMOGLOBIN));
+        assertEquals(Status.HIGH, status(hemoglobin(Sex.UNKNOWN, 8, 15.8f), Parameter.HEMOGLOBIN));
+    }
+
+    @Test
+    public void missingAgeUsesAdultRanges() {
+        LabResult result = new LabResult();
+        result.setSex(Sex.MALE);
+        result.set(Parameter.HEMOGLOBIN, 13.0f, Unit.G_PER_DL);
+        assertEquals(Status.LOW, status(result, Parameter.HEMOGLOBIN));
+        assertTrue((result.flags(Parameter.HEMOGLOBIN) & LabResult.FLAG_LOW) != 0);
+    }
+
+    @Test
+    public void mmolPerLitreIsConvertedBeforeComparing() {
+        LabResult result = new LabResult();
+        result.set(Parameter.SUGAR, 7.5f, Unit.MMOL_PER_L);
+        result.set(Parameter.CHOLESTEROL, 5.5f, Unit.MMOL_PER_L);
+        List<Finding> findings = InstantSummary.evaluate(result);
+
+        Finding sugar = find(findings, Parameter.SUGAR);
+        assertEquals(Status.HIGH, sugar.status);
+        assertEquals("135.1 mg/dL (ref 70-99)", sugar.detail);
+        assertTrue((result.flags(Parameter.SUGAR) & LabResult.FLAG_HIGH) != 0);
+        assertEquals(Status.BORDERLINE, find(findings, Parameter.CHOLESTEROL).status);
+    }
+
+    @Test
+    public void unconvertibleUnitIsSkipped() {
+        LabResult result = new LabResult();
+        result.set(Parameter.HEMOGLOBIN, 8.4f, Unit.MMOL_PER_L);
+        assertNull(find(InstantSummary.evaluate(result), Parameter.HEMOGLOBIN));
+    }
+
+    @Test
+    public void adultBloodPressureIsStaged() {
+        assertEquals(Status.NORMAL, bloodPressure(40, 118, 78).status);
+        assertEquals(Status.ELEVATED, bloodPressure(40, 125, 78).status);
+        assertEquals(Status.LOW, bloodPressure(40, 85, 55).status);
+
+        Finding stage1 = bloodPressure(40, 132, 78);
+        assertEquals(Status.HIGH, stage1.status);
+        assertTrue(stage1.detail.contains("stage 1"));
+
+        Finding stage2 = bloodPressure(40, 128, 92);
+        assertEquals(Status.HIGH, stage2.status);
+        assertEquals("128/92 mmHg (ref below 120/80, stage 2)", stage2.detail);
+    }
+
+    @Test
+    public void childBloodPressureIsNotJudgedByAdultCategories() {
+        LabResult result = new LabResult();
+        result.set(Parameter.AGE, 10, Unit.YEARS);
+        result.set(Parameter.BP_SYSTOLIC, 132, Unit.MMHG);
+        result.set(Parameter.BP_DIASTOLIC, 85, Unit.MMHG);
+
+        assertNull(find(InstantSummary.evaluate(result), Parameter.BP_SYSTOLIC));
+        assertEquals(0, result.flags(Parameter.BP_SYSTOLIC) & (LabResult.FLAG_LOW | LabResult.FLAG_HIGH));
+    }
+
+    private static LabResult hemoglobin(Sex sex, int age, float value) {
+        LabResult result = new LabResult();
+        result.setSex(sex);
+        result.set(Parameter.AGE, age, Unit.YEARS);
+        result.set(Parameter.HEMOGLOBIN, value, Unit.G_PER_DL);
+        return result;
+    }
+
+    private static Finding bloodPressure(int age, float systolic, float diastolic) {
+        LabResult result = new LabResult();
+        result.set(Parameter.AGE, age, Unit.YEARS);
+        result.set(Parameter.BP_SYSTOLIC, systolic, Unit.MMHG);
+        result.set(Parameter.BP_DIASTOLIC, diastolic, Unit.MMHG);
+        return find(InstantSummary.evaluate(result), Parameter.BP_SYSTOLIC);
+    }
+
+    private static Status status(LabResult result, Parameter parameter) {
+        return find(InstantSummary.evaluate(result), parameter).status;
+    }
+
+    private static Finding find(List<Finding> findings, Parameter parameter) {
+        for (Finding finding : findings) {
+            if (finding.parameter == parameter) {
+                return finding;
+            }
+        }
+        return null;
+    }
+}
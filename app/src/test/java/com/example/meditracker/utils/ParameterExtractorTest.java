@@ -0,0 +1,50 @@
+package com.example.meditracker.utils;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ParameterExtractorTest {
+
+    private static final ParameterExtractor EXTRACTOR = new ParameterExtractor.Builder()
+            .field("age", "\\s*[:\\-]\\s*(\\d{1,3})", "Age")
+            .field("cholesterol", "\\s*[:\\-]?\\s*([0-9.]+)", "Cholesterol", "Total Cholesterol")
+            .build();
+
+    @Test
+    public void labelInsideAnotherWordIsIgnored() {
+        assertFalse(EXTRACTOR.extract("Average: 55").containsKey("age"));
+        assertFalse(EXTRACTOR.extract("Dosage - 12").containsKey("age"));
+        assertFalse(EXTRACTOR.extract("Ages: 40").containsKey("age"));
+    }
+
+    @Test
+    public void wholeWordLabelLaterInTheTextStillMatches() {
+        Map<String, String> values = EXTRACTOR.extract("Average: 55\nAge: 42");
+        assertEquals("42", values.get("age"));
+    }
+
+    @Test
+    public void labelAtStartOrAfterPunctuationMatches() {
+        assertEquals("42", EXTRACTOR.extract("Age: 42").get("age"));
+        assertEquals("42", EXTRACTOR.extract("Sex: M;Age - 42").get("age"));
+        assertEquals("42", EXTRACTOR.extract("Patient 7/Age: 42").get("age"));
+    }
+
+    @Test
+    public void multiWordLabelAcrossWhitespaceRunMatches() {
+        assertEquals("190", EXTRACTOR.extract("Total \n  Cholesterol: 190").get("cholesterol"));
+        assertTrue(EXTRACTOR.extract("Nocholesterol: 190").isEmpty());
+    }
+
+    @Test
+    public void analyzerDoesNotReadAgeFromOtherWords() {
+        LabResult result = ReportAnalyzer.extractParameters("Average: 55\nDosage - 12\nHemoglobin: 13.5 g/dL");
+        assertFalse(result.has(LabResult.Parameter.AGE));
+        assertEquals(13.5f, result.value(LabResult.Parameter.HEMOGLOBIN), 0.001f);
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.meditracker.utils;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/** Pins the keys the deployed n8n workflows read from report payloads. */
+public class ReportPayloadTest {
+
+    @Test
+    public void labelledPayloadUsesSummaryTableKeys() throws Exception {
+        JSONObject json = write(ReportPayload.labelled(sampleResult(),
+                Collections.singletonMap("report_url", "https://example.com/r.pdf"), null));
+
+        assertEquals("https://example.com/r.pdf", json.getString("report_url"));
+        assertEquals("Jane Doe", json.getString("Patient Name"));
+        assertEquals("", json.getString("Email"));
+        assertEquals("45", json.getString("Age"));
+        assertEquals("120/80", json.getString("Blood Pressure"));
+        assertEquals("13.5", json.getString("Hemoglobin"));
+        assertEquals("", json.getString("Cholesterol"));
+        assertFalse(json.has("bp_systolic"));
+        assertFalse(json.has("hemoglobin"));
+    }
+
+    @Test
+    public void defaultPayloadUsesFieldKeys() throws Exception {
+        JSONObject json = write(new ReportPayload(sampleResult(), null, null));
+
+        assertEquals("Jane Doe", json.getString("name"));
+        assertEquals("120/80", json.getString("bp"));
+        assertEquals(13.5, json.getDouble("hemoglobin"), 0.001);
+        assertFalse(json.has("Hemoglobin"));
+    }
+
+    private static LabResult sampleResult() {
+        LabResult result = new LabResult();
+        result.setPatientName("Jane Doe");
+        result.set(LabResult.Parameter.AGE, 45, LabResult.Unit.YEARS);
+        result.set(LabResult.Parameter.BP_SYSTOLIC, 120, LabResult.Unit.MMHG);
+        result.set(LabResult.Parameter.BP_DIASTOLIC, 80, LabResult.Unit.MMHG);
+        result.set(LabResult.Parameter.HEMOGLOBIN, 13.5f, LabResult.Unit.G_PER_DL);
+        return result;
+    }
+
+    private static JSONObject write(ReportPayload payload) throws Exception {
+        StringWriter out = new StringWriter();
+        payload.writeTo(out);
+        return new JSONObject(out.toString());
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.meditracker.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Uploads against a local stand-in for Cloudinary's chunked upload endpoint. */
+public class ResumableUploaderTest {
+
+    private static final int CHUNK_SIZE = 1000;
+    private static final String PARTIAL = "{\"done\":false}";
+    private static final String FINISHED = "{\"done\":true,\"secure_url\":\"https://res.example.com/report.pdf\"}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private OkHttpClient client;
+    private File stateDir;
+    private File report;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        // Dropped connections are left to the uploader instead of being retried by OkHttp
+        client = new OkHttpClient.Builder()
+                .readTimeout(5, TimeUnit.SECONDS)
+                .retryOnConnectionFailure(false)
+                .build();
+        stateDir = folder.newFolder("uploads");
+        report = folder.newFile("report.pdf");
+        byte[] bytes = new byte[2500];
+        new Random(7).nextBytes(bytes);
+        try (FileOutputStream out = new FileOutputStream(report)) {
+            out.write(bytes);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    private ResumableUploader newUploader() {
+        HttpUrl base = server.url("/v1_1/demo/");
+        return new ResumableUploader(stateDir, client, base, "key", "secret", CHUNK_SIZE, 10);
+    }
+
+    @Test
+    public void uploadsInFixedSizePartsUnderOneUploadId() throws Exception {
+        server.enqueue(new MockResponse().setBody(PARTIAL));
+        server.enqueue(new MockResponse().setBody(PARTIAL));
+        server.enqueue(new MockResponse().setBody(FINISHED));
+        List<Long> progress = new ArrayList<>();
+
+        String url = newUploader().upload(report, "abc", "raw", (uploaded, total) -> progress.add(uploaded));
+
+        assertEquals("https://res.example.com/report.pdf", url);
+        RecordedRequest first = server.takeRequest();
+        RecordedRequest second = server.takeRequest();
+        RecordedRequest third = server.takeRequest();
+        assertEquals("/v1_1/demo/raw/upload", first.getPath());
+        assertEquals("bytes 0-999/2500", first.getHeader("Content-Range"));
+        assertEquals("bytes 1000-1999/2500", second.getHeader("Content-Range"));
+        assertEquals("bytes 2000-2499/2500", third.getHeader("Content-Range"));
+        String uploadId = first.getHeader("X-Unique-Upload-Id");
+        assertEquals(uploadId, second.getHeader("X-Unique-Upload-Id"));
+        assertEquals(uploadId, third.getHeader("X-Unique-Upload-Id"));
+        assertTrue(first.getBody().readUtf8().contains("name=\"signature\""));
+        assertEquals(Arrays.asList(0L, 1000L, 2000L), progress);
+        // Finished uploads leave no state behind
+        assertEquals(0, stateDir.list().length);
+    }
+
+    @Test
+    public void resumesFromLastAcknowledgedPartAfterRestart() throws Exception {
+        server.enqueue(new MockResponse().setBody(PARTIAL));
+        // The connection drops on every attempt at the second part
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST));
+        }
+        try {
+            newUploader().upload(report, "abc", "raw", null);
+            fail("Upload should have been interrupted");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("1000 of 2500"));
+        }
+        String uploadId = server.takeRequest().getHeader("X-Unique-Upload-Id");
+        for (int i = 0; i < 3; i++) {
+            assertEquals("bytes 1000-1999/2500", server.takeRequest().getHeader("Content-Range"));
+        }
+
+        // A new uploader stands in for the restarted app; only the state directory carries over
+        server.enqueue(new MockResponse().setBody(PARTIAL));
+        server.enqueue(new MockResponse().setBody(FINISHED));
+        List<Long> progress = new ArrayList<>();
+        String url = newUploader().upload(report, "abc", "raw", (uploaded, total) -> progress.add(uploaded));
+
+        assertEquals("https://res.example.com/report.pdf", url);
+        RecordedRequest resumed = server.takeRequest();
+        assertEquals("bytes 1000-1999/2500", resumed.getHeader("Content-Range"));
+        assertEquals(uploadId, resumed.getHeader("X-Unique-Upload-Id"));
+        assertEquals("bytes 2000-2499/2500", server.takeRequest().getHeader("Content-Range"));
+        assertEquals(Arrays.asList(1000L, 2000L), progress);
+        assertEquals(3 + 1 + 2, server.getRequestCount());
+    }
+
+    @Test
+    public void rejectedUploadIsNotRetried() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(401).setBody("{\"error\":\"Invalid signature\"}"));
+        try {
+            newUploader().upload(report, "abc", "image", null);
+            fail("Upload should have been rejected");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("HTTP 401"));
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void rejectedUploadStartsOverNextTime() throws Exception {
+        server.enqueue(new MockResponse().setBody(PARTIAL));
+        server.enqueue(new MockResponse().setResponseCode(400).setBody("{\"error\":\"Upload expired\"}"));
+        try {
+            newUploader().upload(report, "abc", "raw", null);
+            fail("Upload should have been rejected");
+        } catch (ResumableUploader.UploadRejectedException expected) {
+            assertEquals(400, expected.code);
+        }
+        String rejectedId = server.takeRequest().getHeader("X-Unique-Upload-Id");
+        server.takeRequest();
+        // The dead upload id is not resumed
+        assertEquals(0, stateDir.list().length);
+
+        server.enqueue(new MockResponse().setBody(PARTIAL));
+        server.enqueue(new MockResponse().setBody(PARTIAL));
+        server.enqueue(new MockResponse().setBody(FINISHED));
+        newUploader().upload(report, "abc", "raw", null);
+        RecordedRequest restarted = server.takeRequest();
+        assertEquals("bytes 0-999/2500", restarted.getHeader("Content-Range"));
+        assertNotEquals(rejectedId, restarted.getHeader("X-Unique-Upload-Id"));
+    }
+}
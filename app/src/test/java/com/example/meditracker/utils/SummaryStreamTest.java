@@ -0,0 +1,113 @@
+package com.example.meditracker.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Streams summaries from a local stand-in for the n8n webhook that trickles out its response. */
+public class SummaryStreamTest {
+
+    private MockWebServer server;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        client = new OkHttpClient.Builder().readTimeout(5, TimeUnit.SECONDS).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void eventsArriveBeforeTheResponseIsComplete() throws Exception {
+        String events = ": keep-alive\n\n"
+                + "data: Hemoglobin is \n\n"
+                + "event: delta\ndata: within range.\n\n"
+                + "data: Line one\ndata: line two\n\n"
+                + "data: [DONE]\n\n";
+        server.enqueue(new MockResponse()
+                .setHeader("Content-Type", "text/event-stream")
+                .setChunkedBody(events, 16)
+                .throttleBody(16, 100, TimeUnit.MILLISECONDS));
+
+        List<String> chunks = new ArrayList<>();
+        List<Long> arrivals = new ArrayList<>();
+        long start = System.nanoTime();
+        SummaryStream stream = new SummaryStream(start);
+        String summary;
+        try (Response response = client.newCall(request()).execute()) {
+            ResponseBody body = response.body();
+            assertTrue(SummaryStream.isStreaming(body));
+            summary = stream.read(body, (chunk, soFar) -> {
+                chunks.add(chunk);
+                arrivals.add(System.nanoTime());
+            });
+        }
+        long end = System.nanoTime();
+
+        assertEquals(Arrays.asList("Hemoglobin is ", "within range.", "Line one\nline two"), chunks);
+        assertEquals("Hemoglobin is within range.Line one\nline two", summary);
+        // The first text is shown well before the last byte arrives
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(end - arrivals.get(0)) >= 200);
+        assertTrue(stream.timeToFirstTextMs() >= 0);
+        assertTrue(stream.timeToFirstTextMs() < TimeUnit.NANOSECONDS.toMillis(end - start));
+    }
+
+    @Test
+    public void plainTextIsPassedOnChunkByChunk() throws Exception {
+        String text = "Cholesterol is slightly high; folate is 12 \u00b5g/L, within range.";
+        server.enqueue(new MockResponse()
+                .setHeader("Content-Type", "text/plain; charset=utf-8")
+                .setChunkedBody(text, 7)
+                .throttleBody(7, 50, TimeUnit.MILLISECONDS));
+
+        List<String> chunks = new ArrayList<>();
+        SummaryStream stream = new SummaryStream(System.nanoTime());
+        String summary;
+        try (Response response = client.newCall(request()).execute()) {
+            summary = stream.read(response.body(), (chunk, soFar) -> chunks.add(chunk));
+        }
+
+        assertEquals(text, summary);
+        assertTrue(chunks.size() > 1);
+    }
+
+    @Test
+    public void jsonResponsesAreNotStreamed() throws Exception {
+        server.enqueue(new MockResponse()
+                .setHeader("Content-Type", "application/json")
+                .setBody("{\"summary\":\"ok\"}"));
+
+        try (Response response = client.newCall(request()).execute()) {
+            assertFalse(SummaryStream.isStreaming(response.body()));
+        }
+        assertEquals(-1, new SummaryStream(System.nanoTime()).timeToFirstTextMs());
+    }
+
+    private Request request() {
+        return new Request.Builder()
+                .url(server.url("/webhook"))
+                .header("Accept", SummaryStream.ACCEPT)
+                .build();
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.meditracker.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.GzipSource;
+import okio.Okio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Runs the outbox against a local stand-in for the n8n webhook. */
+public class WebhookOutboxTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private OkHttpClient client;
+    private File dir;
+    private String url;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        client = new OkHttpClient.Builder().readTimeout(5, TimeUnit.SECONDS).build();
+        dir = folder.newFolder("outbox");
+        url = server.url("/webhook").toString();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void deliversInBackgroundWithIdempotencyKey() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"summary\":\"ok\"}"));
+        WebhookOutbox outbox = new WebhookOutbox(dir, client, new Random(1));
+        CountDownLatch delivered = new CountDownLatch(1);
+        AtomicReference<String> body = new AtomicReference<>();
+        outbox.addListener(new RecordingListener() {
+            @Override
+            public void onDelivered(String key, String responseBody) {
+                body.set(responseBody);
+                delivered.countDown();
+            }
+        });
+
+        String key = outbox.add(url, out -> out.write("{\"rbc\":4.5}"));
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        RecordedRequest request = server.takeRequest();
+        assertEquals(key, request.getHeader(WebhookOutbox.IDEMPOTENCY_HEADER));
+        assertEquals(GzipJsonBody.GZIP, request.getHeader(GzipJsonBody.CONTENT_ENCODING));
+        assertEquals("{\"rbc\":4.5}", Okio.buffer(new GzipSource(request.getBody())).readUtf8());
+        assertEquals("{\"summary\":\"ok\"}", body.get());
+        assertEquals(0, outbox.pendingCount());
+        assertFalse(new File(dir, key + ".json.gz").exists());
+        outbox.shutdown();
+
+        // Nothing comes back after a restart
+        assertEquals(0, new WebhookOutbox(dir, client, new Random(1)).pendingCount());
+    }
+
+    @Test
+    public void failedEntrySurvivesRestartAndRetriesWithSameKey() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        WebhookOutbox outbox = new WebhookOutbox(dir, client, new Random(1));
+        String key = WebhookOutbox.newKey();
+        outbox.addInFlight(key, url, out -> out.write("{\"wbc\":7}"));
+        // Past the in-flight grace period, as if the caller never reported back
+        long later = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(10);
+        assertEquals(0, outbox.deliverDue(later));
+        assertEquals(1, outbox.pendingCount());
+        outbox.shutdown();
+
+        // Simulated process death: a fresh instance replays the journal
+        WebhookOutbox restarted = new WebhookOutbox(dir, client, new Random(1));
+        assertEquals(1, restarted.pendingCount());
+        assertEquals(0, restarted.deliverDue(later));
+        assertEquals(1, restarted.deliverDue(later + TimeUnit.HOURS.toMillis(1)));
+        assertEquals(0, restarted.pendingCount());
+
+        assertEquals(key, server.takeRequest().getHeader(WebhookOutbox.IDEMPOTENCY_HEADER));
+        assertEquals(key, server.takeRequest().getHeader(WebhookOutbox.IDEMPOTENCY_HEADER));
+        restarted.shutdown();
+    }
+
+    @Test
+    public void clientErrorIsDroppedNotRetried() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(400));
+        WebhookOutbox outbox = new WebhookOutbox(dir, client, new Random(1));
+        AtomicReference<String> dropped = new AtomicReference<>();
+        outbox.addListener(new RecordingListener() {
+            @Override
+            public void onDropped(String key, String reason) {
+                dropped.set(reason);
+            }
+        });
+
+        outbox.addInFlight(WebhookOutbox.newKey(), url, out -> out.write("{}"));
+        outbox.deliverDue(Long.MAX_VALUE / 2);
+
+        assertEquals(0, outbox.pendingCount());
+        assertNotNull(dropped.get());
+        assertEquals(1, server.getRequestCount());
+        outbox.shutdown();
+    }
+
+    @Test
+    public void tornRecordIsIgnoredOnReplay() throws Exception {
+        WebhookOutbox outbox = new WebhookOutbox(dir, client, new Random(1));
+        outbox.addInFlight(WebhookOutbox.newKey(), url, out -> out.write("{\"a\":1}"));
+        outbox.shutdown();
+        try (FileOutputStream out = new FileOutputStream(new File(dir, "outbox.journal"), true)) {
+            out.write("A\tpartial\t0\thttp://exa".getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertEquals(1, new WebhookOutbox(dir, client, new Random(1)).pendingCount());
+    }
+
+    @Test
+    public void entryWithoutPayloadFileIsDroppedOnReplay() throws Exception {
+        WebhookOutbox outbox = new WebhookOutbox(dir, client, new Random(1));
+        String key = WebhookOutbox.newKey();
+        File payload = outbox.addInFlight(key, url, out -> out.write("{}"));
+        outbox.shutdown();
+        assertTrue(payload.delete());
+
+        assertEquals(0, new WebhookOutbox(dir, client, new Random(1)).pendingCount());
+    }
+
+    @Test
+    public void payloadThatFailsToWriteLeavesNothingBehind() throws Exception {
+        WebhookOutbox outbox = new WebhookOutbox(dir, client, new Random(1));
+        String key = WebhookOutbox.newKey();
+        try {
+            outbox.addInFlight(key, url, out -> {
+                out.write("{\"a\":");
+                throw new IOException("report text vanished");
+            });
+            fail("Expected the payload failure to propagate");
+        } catch (IOException expected) {
+            // The caller reports it
+        }
+        outbox.shutdown();
+
+        assertFalse(new File(dir, key + ".json.gz").exists());
+        assertEquals(0, new WebhookOutbox(dir, client, new Random(1)).pendingCount());
+    }
+
+    @Test
+    public void openBreakerHoldsBackDeliveryAndFailuresOpenIt() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setBody("{}"));
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 10_000, 60_000);
+        WebhookOutbox outbox = new WebhookOutbox(dir, client, new Random(1));
+        outbox.gate(url, breaker);
+
+        outbox.addInFlight(WebhookOutbox.newKey(), url, out -> out.write("{}"));
+        long later = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(10);
+        assertEquals(0, outbox.deliverDue(later));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // Due again by its backoff, but the breaker is still cooling down
+        assertEquals(0, outbox.deliverDue(later + TimeUnit.HOURS.toMillis(1)));
+        assertEquals(1, server.getRequestCount());
+        assertEquals(1, outbox.pendingCount());
+        outbox.shutdown();
+    }
+
+        @Test
+    public void backoffGrowsAndStaysWithinJitterBounds() {
+        WebhookOutbox outbox = new WebhookOutbox(dir, client, new Random(1));
+        for (int attempts = 1; attempts <= 12; attempts++) {
+            long cap = Math.min(5_000L << (attempts - 1), 30 * 60_000L);
+            long delay = outbox.backoff(attempts);
+            assertTrue(delay >= cap / 2 && delay <= cap);
+        }
+        outbox.shutdown();
+    }
+
+    private static class RecordingListener implements WebhookOutbox.Listener {
+        @Override
+        public void onDelivered(String key, String responseBody) {
+        }
+
+        @Override
+        public void onRetryScheduled(String key, int attempts, long delayMs) {
+        }
+
+        @Override
+        public void onDropped(String key, String reason) {
+        }
+    }
+}
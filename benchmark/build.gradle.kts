@@ -0,0 +1,39 @@
+plugins {
+    `java-library`
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+// The extraction code lives in the Android app; compile the plain-Java parts of it here
+// against a no-op android.util.Log so the hot paths can be measured on the JVM.
+sourceSets {
+    main {
+        java {
+            srcDir("../app/src/main/java")
+            include("android/util/**")
+            include("com/example/meditracker/utils/ContentHash.java")
+            include("com/example/meditracker/utils/JsonText.java")
+            include("com/example/meditracker/utils/LabResult.java")
+            include("com/example/meditracker/utils/ParameterExtractor.java")
+            include("com/example/meditracker/utils/ReportAnalyzer.java")
+        }
+    }
+}
+
+dependencies {
+    jmh(libs.itextg)
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+}
@@ -0,0 +1,63 @@
+package com.example.meditracker.benchmark;
+
+import com.example.meditracker.utils.LabResult;
+import com.example.meditracker.utils.ReportAnalyzer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** Parameter extraction over report text, new single-pass engine against the old per-call regexes. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ExtractionBenchmark {
+
+    @Param({"report_1page.txt", "report_10pages.txt", "report_60pages.txt"})
+    public String report;
+
+    private String text;
+
+    @Setup
+    public void load() throws IOException {
+        text = Corpus.load(report);
+    }
+
+    @Benchmark
+    public LabResult reportAnalyzer() {
+        return ReportAnalyzer.extractParameters(text);
+    }
+
+    @Benchmark
+    public void summaryTable(Blackhole blackhole) {
+        ReportAnalyzer.extractParameters(text).writeRows((label, value) -> blackhole.consume(value));
+    }
+
+    @Benchmark
+    public String webhookPayload() throws IOException {
+        StringWriter json = new StringWriter();
+        ReportAnalyzer.extractParameters(text).writeJson(json, null);
+        return json.toString();
+    }
+
+    @Benchmark
+    public Map<String, String> legacyReportAnalyzer() {
+        return LegacyExtraction.reportAnalyzer(text);
+    }
+
+    @Benchmark
+    public Map<String, String> legacySummaryTable() {
+        return LegacyExtraction.summaryActivity(text);
+    }
+}
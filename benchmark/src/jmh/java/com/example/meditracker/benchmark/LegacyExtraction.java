@@ -0,0 +1,58 @@
+package com.example.meditracker.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The per-call regex extraction that ReportAnalyzer and SummaryActivity used before the shared
+ * single-pass extractor, kept as a baseline for comparison.
+ */
+final class LegacyExtraction {
+    private LegacyExtraction() {
+    }
+
+    static Map<String, String> reportAnalyzer(String text) {
+        Map<String, String> parameters = new HashMap<>();
+        String[] patterns = {
+                "(?:Name|Patient Name):\\s*([A-Za-z\\s]+)",
+                "(?:Age):\\s*(\\d+)",
+                "(?:RBC|Red Blood Cells):\\s*([\\d.]+)\\s*(?:million/uL|\\S+)?",
+                "(?:WBC|White Blood Cells):\\s*([\\d.]+)\\s*(?:thousand/uL|\\S+)?",
+                "(?:Hemoglobin|Hgb):\\s*([\\d.]+)\\s*(?:g/dL|\\S+)?",
+                "(?:Platelets):\\s*([\\d.]+)\\s*(?:thousand/uL|\\S+)?",
+                "(?:Blood Sugar|Glucose):\\s*([\\d.]+)\\s*(?:mg/dL|\\S+)?",
+                "(?:Cholesterol|Total Cholesterol):\\s*([\\d.]+)\\s*(?:mg/dL|\\S+)?",
+                "(?:BP|Blood Pressure):\\s*(\\d+/\\d+)\\s*(?:mmHg|\\S+)?",
+        };
+        String[] keys = {"name", "age", "rbc", "wbc", "hemoglobin", "platelets", "sugar", "cholesterol", "bp"};
+        for (int i = 0; i < patterns.length; i++) {
+            Matcher matcher = Pattern.compile(patterns[i], Pattern.CASE_INSENSITIVE).matcher(text);
+            if (matcher.find()) {
+                parameters.put(keys[i], matcher.group(1).trim());
+            }
+        }
+        return parameters;
+    }
+
+    static Map<String, String> summaryActivity(String text) {
+        Map<String, String> params = new HashMap<>();
+        params.put("Patient Name", findValue(text, "(?i)Patient\\s*Name\\s*[:\\-]?\\s*([A-Za-z ]+)"));
+        params.put("Age", findValue(text, "(?i)Age\\s*[:\\-]?\\s*(\\d{1,3})"));
+        params.put("Email", findValue(text, "(?i)Email\\s*[:\\-]?\\s*([\\w._%+-]+@[\\w.-]+\\.[A-Za-z]{2,})"));
+        params.put("Blood Pressure", findValue(text, "(?i)Blood\\s*Pressure\\s*[:\\-]?\\s*(\\d{2,3}\\/?\\d{2,3})"));
+        params.put("RBC", findValue(text, "(?i)RBC\\s*[:\\-]?\\s*([0-9.]+)"));
+        params.put("WBC", findValue(text, "(?i)WBC\\s*[:\\-]?\\s*([0-9.]+)"));
+        params.put("Hemoglobin", findValue(text, "(?i)Hemoglobin\\s*[:\\-]?\\s*([0-9.]+)"));
+        params.put("Platelets", findValue(text, "(?i)Platelets\\s*[:\\-]?\\s*([0-9,]+)"));
+        params.put("Blood Sugar", findValue(text, "(?i)Blood\\s*Sugar\\s*[:\\-]?\\s*([0-9.]+)"));
+        params.put("Cholesterol", findValue(text, "(?i)Cholesterol\\s*[:\\-]?\\s*([0-9.]+)"));
+        return params;
+    }
+
+    private static String findValue(String text, String regex) {
+        Matcher matcher = Pattern.compile(regex).matcher(text);
+        return matcher.find() ? matcher.group(1).trim() : "";
+    }
+}
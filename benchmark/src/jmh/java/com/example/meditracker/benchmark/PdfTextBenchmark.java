@@ -0,0 +1,96 @@
+package com.example.meditracker.benchmark;
+
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.Paragraph;
+import com.itextpdf.text.io.RandomAccessSourceFactory;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfWriter;
+import com.itextpdf.text.pdf.RandomAccessFileOrArray;
+import com.itextpdf.text.pdf.parser.PdfTextExtractor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * iText page text extraction over PDFs rendered from the corpus, comparing the file-backed
+ * partial reader used by PdfTextEngine with the fully buffered InputStream reader.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PdfTextBenchmark {
+
+    @Param({"report_1page.txt", "report_10pages.txt", "report_60pages.txt"})
+    public String report;
+
+    private File pdf;
+
+    @Setup
+    public void render() throws IOException, DocumentException {
+        pdf = File.createTempFile("bench_", ".pdf");
+        Document document = new Document();
+        try (OutputStream out = new FileOutputStream(pdf)) {
+            PdfWriter.getInstance(document, out);
+            document.open();
+            for (String page : Corpus.load(report).split("--- Page ")) {
+                document.newPage();
+                for (String line : page.split("\n")) {
+                    document.add(new Paragraph(line));
+                }
+            }
+            document.close();
+        }
+    }
+
+    @TearDown
+    public void delete() {
+        pdf.delete();
+    }
+
+    @Benchmark
+    public int fileBackedReader() throws IOException {
+        PdfReader reader = new PdfReader(new RandomAccessFileOrArray(
+                new RandomAccessSourceFactory().setForceRead(false).createBestSource(pdf.getAbsolutePath())), null);
+        try {
+            return extractAll(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Benchmark
+    public int bufferedStreamReader() throws IOException {
+        try (InputStream in = new FileInputStream(pdf)) {
+            PdfReader reader = new PdfReader(in);
+            try {
+                return extractAll(reader);
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    private static int extractAll(PdfReader reader) throws IOException {
+        int chars = 0;
+        for (int i = 1; i <= reader.getNumberOfPages(); i++) {
+            chars += PdfTextExtractor.getTextFromPage(reader, i).length();
+        }
+        return chars;
+    }
+}
@@ -21,3 +21,4 @@ dependencyResolutionManagement {
 
 rootProject.name = "MediTracker"
 include(":app")
+include(":benchmark")